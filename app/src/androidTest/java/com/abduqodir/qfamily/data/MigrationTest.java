@@ -0,0 +1,135 @@
+package com.abduqodir.qfamily.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+import androidx.room.Room;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs the explicit migrations on a database created with the version 3 table. Opening it through
+ * Room checks the migrated schema against the one the Room compiler generated for
+ * {@link AppDatabase}, so no hand-maintained schema file is involved.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+    private static final String TEST_DB = "migration-test.db";
+    // The people table as Room created it for version 3 of the Person entity.
+    private static final String CREATE_PEOPLE_V3 = "CREATE TABLE IF NOT EXISTS `people` ("
+            + "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `firstName` TEXT NOT NULL, "
+            + "`lastName` TEXT NOT NULL, `middleName` TEXT NOT NULL, `birthDate` INTEGER, "
+            + "`photoUri` TEXT, `gender` TEXT, `fatherId` INTEGER, `motherId` INTEGER, "
+            + "`spouseId` INTEGER, `createdAt` INTEGER, `updatedAt` INTEGER, `isRoot` INTEGER NOT NULL)";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void migrate3To4AddsRelationshipIndexes() {
+        SupportSQLiteOpenHelper helper = openVersion3();
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+        insertPerson(db, 1L, "Anna");
+        Migrations.MIGRATION_3_4.migrate(db);
+
+        Set<String> indexes = new HashSet<>();
+        try (Cursor cursor = db.query("SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = 'people'")) {
+            while (cursor.moveToNext()) {
+                indexes.add(cursor.getString(0));
+            }
+        }
+        assertTrue(indexes.contains("index_people_motherId"));
+        assertTrue(indexes.contains("index_people_fatherId"));
+        assertTrue(indexes.contains("index_people_spouseId"));
+        assertTrue(indexes.contains("index_people_isRoot"));
+        assertEquals(1, count(db));
+        helper.close();
+    }
+
+    @Test
+    public void migrate4To5StartsExistingRowsAtVersionZero() {
+        SupportSQLiteOpenHelper helper = openVersion3();
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+        insertPerson(db, 1L, "Anna");
+        Migrations.MIGRATION_3_4.migrate(db);
+        Migrations.MIGRATION_4_5.migrate(db);
+
+        try (Cursor cursor = db.query("SELECT version FROM people WHERE id = 1")) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(0L, cursor.getLong(0));
+        }
+        helper.close();
+    }
+
+    @Test
+    public void roomOpensAVersion3DatabaseThroughAllMigrations() {
+        SupportSQLiteOpenHelper helper = openVersion3();
+        insertPerson(helper.getWritableDatabase(), 1L, "Anna");
+        helper.close();
+
+        AppDatabase database = Room.databaseBuilder(context, AppDatabase.class, TEST_DB)
+                .addMigrations(Migrations.ALL)
+                .allowMainThreadQueries()
+                .build();
+        try {
+            List<Person> people = database.personDao().getAll();
+            assertEquals(1, people.size());
+            assertEquals("Anna", people.get(0).firstName);
+            assertEquals(0L, people.get(0).version);
+        } finally {
+            database.close();
+        }
+    }
+
+    private SupportSQLiteOpenHelper openVersion3() {
+        SupportSQLiteOpenHelper.Configuration configuration = SupportSQLiteOpenHelper.Configuration.builder(context)
+                .name(TEST_DB)
+                .callback(new SupportSQLiteOpenHelper.Callback(3) {
+                    @Override
+                    public void onCreate(@NonNull SupportSQLiteDatabase db) {
+                        db.execSQL(CREATE_PEOPLE_V3);
+                    }
+
+                    @Override
+                    public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+                    }
+                })
+                .build();
+        return new FrameworkSQLiteOpenHelperFactory().create(configuration);
+    }
+
+    private static void insertPerson(SupportSQLiteDatabase db, long id, String firstName) {
+        db.execSQL("INSERT INTO people (id, firstName, lastName, middleName, isRoot) VALUES (?, ?, ?, ?, ?)",
+                new Object[]{id, firstName, "Test", "", 1});
+    }
+
+    private static int count(SupportSQLiteDatabase db) {
+        try (Cursor cursor = db.query("SELECT COUNT(*) FROM people")) {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.abduqodir.qfamily.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class PersonDaoTest {
+    private AppDatabase database;
+    private PersonDao dao;
+
+    @Before
+    public void createDatabase() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        dao = database.personDao();
+    }
+
+    @After
+    public void closeDatabase() {
+        database.close();
+    }
+
+    @Test
+    public void updateIfVersionWritesAndBumpsMatchingVersion() {
+        long id = dao.insert(person("Anna"));
+        Person stored = dao.getById(id);
+        stored.firstName = "Anya";
+        assertTrue(dao.updateIfVersion(stored, 0L));
+        Person updated = dao.getById(id);
+        assertEquals("Anya", updated.firstName);
+        assertEquals(1L, updated.version);
+    }
+
+    @Test
+    public void updateIfVersionRejectsStaleVersion() {
+        long id = dao.insert(person("Anna"));
+        Person first = dao.getById(id);
+        Person second = dao.getById(id);
+        first.firstName = "Anya";
+        assertTrue(dao.updateIfVersion(first, first.version));
+        second.firstName = "Annushka";
+        assertFalse(dao.updateIfVersion(second, second.version));
+        Person stored = dao.getById(id);
+        assertEquals("Anya", stored.firstName);
+        assertEquals(1L, stored.version);
+    }
+
+    @Test
+    public void updateIfVersionRejectsMissingRow() {
+        Person ghost = person("Ghost");
+        ghost.id = 99L;
+        assertFalse(dao.updateIfVersion(ghost, 0L));
+        assertNull(dao.getById(99L));
+    }
+
+    @Test
+    public void insertRootDemotesPreviousRootAndBumpsItsVersion() {
+        long first = dao.insertRoot(person("First"));
+        long second = dao.insertRoot(person("Second"));
+        Person demoted = dao.getById(first);
+        assertFalse(demoted.isRoot);
+        assertEquals(1L, demoted.version);
+        assertEquals(second, dao.getRootPerson().id);
+    }
+
+    @Test
+    public void deleteAndUnlinkClearsLinksAndBumpsVersions() {
+        long parent = dao.insert(person("Parent"));
+        Person child = person("Child");
+        child.motherId = parent;
+        long childId = dao.insert(child);
+        long[] linked = dao.deleteAndUnlink(parent);
+        assertArrayEquals(new long[]{childId}, linked);
+        assertNull(dao.getById(parent));
+        Person unlinked = dao.getById(childId);
+        assertNull(unlinked.motherId);
+        assertEquals(1L, unlinked.version);
+    }
+
+    @Test
+    public void treeNeighbourhoodStopsAtRequestedDepths() {
+        long grandmother = dao.insert(person("Grandmother"));
+        Person motherRow = person("Mother");
+        motherRow.motherId = grandmother;
+        long mother = dao.insert(motherRow);
+        long father = dao.insert(person("Father"));
+        long spouseMother = dao.insert(person("SpouseMother"));
+        Person selfRow = person("Self");
+        selfRow.motherId = mother;
+        selfRow.fatherId = father;
+        long self = dao.insert(selfRow);
+        Person spouseRow = person("Spouse");
+        spouseRow.motherId = spouseMother;
+        spouseRow.spouseId = self;
+        long spouse = dao.insert(spouseRow);
+        Person married = dao.getById(self);
+        married.spouseId = spouse;
+        dao.update(married);
+        Person childRow = person("Child");
+        childRow.fatherId = self;
+        childRow.motherId = spouse;
+        long child = dao.insert(childRow);
+        Person grandchildRow = person("Grandchild");
+        grandchildRow.fatherId = child;
+        dao.insert(grandchildRow);
+
+        List<Person> neighbourhood = dao.getTreeNeighbourhood(self, 1, 1);
+        long[] ids = new long[neighbourhood.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = neighbourhood.get(i).id;
+        }
+        Arrays.sort(ids);
+        long[] expected = {mother, father, spouseMother, self, spouse, child};
+        Arrays.sort(expected);
+        assertArrayEquals(expected, ids);
+    }
+
+    private static Person person(String firstName) {
+        Person person = new Person();
+        person.firstName = firstName;
+        person.lastName = "Test";
+        person.middleName = "";
+        return person;
+    }
+}
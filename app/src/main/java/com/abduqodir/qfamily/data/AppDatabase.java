@@ -4,13 +4,12 @@ import android.content.Context;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
-@Database(entities = {Person.class}, version = 3, exportSchema = false)
+@Database(entities = {Person.class}, version = 5, exportSchema = true)
 public abstract class AppDatabase extends RoomDatabase {
+    private static final int READER_THREADS = 3;
     private static volatile AppDatabase instance;
-    private static final ExecutorService databaseExecutor = Executors.newFixedThreadPool(4);
+    private static final DatabaseScheduler scheduler = new DatabaseScheduler(READER_THREADS);
 
     public abstract PersonDao personDao();
 
@@ -23,7 +22,9 @@ public abstract class AppDatabase extends RoomDatabase {
                             AppDatabase.class,
                             "family_tree.db"
                     )
-                    .fallbackToDestructiveMigration()
+                    .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
+                    .addMigrations(Migrations.ALL)
+                    .fallbackToDestructiveMigrationFrom(1, 2)
                     .build();
                 }
             }
@@ -31,8 +32,8 @@ public abstract class AppDatabase extends RoomDatabase {
         return instance;
     }
 
-    public static ExecutorService getDatabaseExecutor() {
-        return databaseExecutor;
+    public static DatabaseScheduler getScheduler() {
+        return scheduler;
     }
 }
 
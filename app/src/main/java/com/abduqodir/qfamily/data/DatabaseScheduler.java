@@ -0,0 +1,126 @@
+package com.abduqodir.qfamily.data;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs database work with one writer thread and a small pool of reader threads. With write-ahead
+ * logging every reader thread gets its own connection, so reads run in parallel with each other
+ * and with the single write connection. Both queues hand out the most urgent job first, oldest
+ * first within a priority.
+ */
+public final class DatabaseScheduler {
+    /** Reads the user is waiting on, such as opening a person's details. */
+    public static final int PRIORITY_USER_BLOCKING = 0;
+    /** Loads the user will see soon but is not blocked on, such as the tree. */
+    public static final int PRIORITY_BACKGROUND = 1;
+    /** Large jobs that can wait, such as imports and batch writes. */
+    public static final int PRIORITY_BULK = 2;
+    private static final int PRIORITY_COUNT = 3;
+
+    private final ThreadPoolExecutor writer;
+    private final ThreadPoolExecutor readers;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicIntegerArray queued = new AtomicIntegerArray(PRIORITY_COUNT);
+    private final AtomicLongArray completed = new AtomicLongArray(PRIORITY_COUNT);
+    private final AtomicLongArray totalWaitNanos = new AtomicLongArray(PRIORITY_COUNT);
+    private final AtomicLongArray maxWaitNanos = new AtomicLongArray(PRIORITY_COUNT);
+
+    DatabaseScheduler(int readerThreads) {
+        writer = newExecutor(1, "db-writer");
+        readers = newExecutor(readerThreads, "db-reader");
+    }
+
+    public void read(int priority, Runnable task) {
+        readers.execute(new Job(priority, task));
+    }
+
+    /**
+     * Writes run one at a time, in priority order, so they never contend for the write lock.
+     */
+    public void write(int priority, Runnable task) {
+        writer.execute(new Job(priority, task));
+    }
+
+    public Metrics getMetrics() {
+        int[] depth = new int[PRIORITY_COUNT];
+        long[] done = new long[PRIORITY_COUNT];
+        long[] averageWait = new long[PRIORITY_COUNT];
+        long[] maxWait = new long[PRIORITY_COUNT];
+        for (int p = 0; p < PRIORITY_COUNT; p++) {
+            depth[p] = queued.get(p);
+            done[p] = completed.get(p);
+            averageWait[p] = done[p] > 0 ? TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get(p) / done[p]) : 0L;
+            maxWait[p] = TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get(p));
+        }
+        return new Metrics(depth, done, averageWait, maxWait);
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threads, String name) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Queue depth, completed jobs and time spent queued, indexed by priority.
+     */
+    public static final class Metrics {
+        public final int[] queueDepth;
+        public final long[] completed;
+        public final long[] averageWaitMillis;
+        public final long[] maxWaitMillis;
+
+        Metrics(int[] queueDepth, long[] completed, long[] averageWaitMillis, long[] maxWaitMillis) {
+            this.queueDepth = queueDepth;
+            this.completed = completed;
+            this.averageWaitMillis = averageWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+    }
+
+    private final class Job implements Runnable, Comparable<Job> {
+        final int priority;
+        final long order;
+        final long enqueuedAt;
+        final Runnable task;
+
+        Job(int priority, Runnable task) {
+            this.priority = Math.max(0, Math.min(PRIORITY_COUNT - 1, priority));
+            this.order = sequence.getAndIncrement();
+            this.enqueuedAt = System.nanoTime();
+            this.task = task;
+            queued.incrementAndGet(this.priority);
+        }
+
+        @Override
+        public void run() {
+            long waited = System.nanoTime() - enqueuedAt;
+            queued.decrementAndGet(priority);
+            completed.incrementAndGet(priority);
+            totalWaitNanos.addAndGet(priority, waited);
+            long max;
+            do {
+                max = maxWaitNanos.get(priority);
+            } while (waited > max && !maxWaitNanos.compareAndSet(priority, max, waited));
+            task.run();
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.abduqodir.qfamily.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+public final class Migrations {
+    public static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_people_motherId` ON `people` (`motherId`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_people_fatherId` ON `people` (`fatherId`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_people_spouseId` ON `people` (`spouseId`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_people_isRoot` ON `people` (`isRoot`)");
+        }
+    };
+
+    public static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `people` ADD COLUMN `version` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    public static final Migration[] ALL = {
+            MIGRATION_3_4,
+            MIGRATION_4_5
+    };
+
+    private Migrations() {
+    }
+}
@@ -1,10 +1,20 @@
 package com.abduqodir.qfamily.data;
 
 import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity(tableName = "people")
+@Entity(
+        tableName = "people",
+        indices = {
+                @Index("motherId"),
+                @Index("fatherId"),
+                @Index("spouseId"),
+                @Index("isRoot")
+        }
+)
 public class Person {
     @PrimaryKey(autoGenerate = true)
     public long id;
@@ -35,5 +45,30 @@ public class Person {
     public Long updatedAt;
 
     public boolean isRoot;
+
+    /**
+     * Bumped by every write to the row; updates only succeed against the version they read.
+     */
+    @ColumnInfo(defaultValue = "0")
+    public long version;
+
+    public Person copy() {
+        Person copy = new Person();
+        copy.id = id;
+        copy.firstName = firstName;
+        copy.lastName = lastName;
+        copy.middleName = middleName;
+        copy.birthDate = birthDate;
+        copy.photoUri = photoUri;
+        copy.gender = gender;
+        copy.fatherId = fatherId;
+        copy.motherId = motherId;
+        copy.spouseId = spouseId;
+        copy.createdAt = createdAt;
+        copy.updatedAt = updatedAt;
+        copy.isRoot = isRoot;
+        copy.version = version;
+        return copy;
+    }
 }
 
@@ -3,6 +3,7 @@ package com.abduqodir.qfamily.data;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.Transaction;
 import androidx.room.Update;
 import java.util.List;
 
@@ -20,10 +21,19 @@ public interface PersonDao {
     @Query("SELECT * FROM people WHERE id = :id LIMIT 1")
     Person getById(long id);
 
+    @Query("SELECT * FROM people WHERE id IN (:ids)")
+    List<Person> getByIds(long[] ids);
+
     @Query("SELECT * FROM people WHERE isRoot = 1 LIMIT 1")
     Person getRootPerson();
 
-    @Query("UPDATE people SET isRoot = 0")
+    @Query("SELECT * FROM people ORDER BY lastName COLLATE NOCASE, firstName COLLATE NOCASE LIMIT 1")
+    Person getFirstByName();
+
+    @Query("SELECT version FROM people WHERE id = :id")
+    Long getVersion(long id);
+
+    @Query("UPDATE people SET isRoot = 0, version = version + 1 WHERE isRoot = 1")
     void clearRoot();
 
     @Query("SELECT * FROM people WHERE id IN (SELECT motherId FROM people WHERE id = :personId) " +
@@ -33,16 +43,142 @@ public interface PersonDao {
     @Query("SELECT * FROM people WHERE motherId = :personId OR fatherId = :personId")
     List<Person> getChildren(long personId);
 
-    @Query("UPDATE people SET motherId = NULL WHERE motherId = :personId")
+    @Query("WITH RECURSIVE " +
+            "ancestors(id, depth) AS (" +
+            "SELECT :personId, 0 " +
+            "UNION " +
+            "SELECT parent.id, ancestors.depth + 1 FROM ancestors " +
+            "JOIN people AS child ON child.id = ancestors.id " +
+            "JOIN people AS parent ON parent.id IN (child.motherId, child.fatherId) " +
+            "WHERE ancestors.depth < :maxUp), " +
+            "descendants(id, depth) AS (" +
+            "SELECT :personId, 0 " +
+            "UNION " +
+            "SELECT child.id, descendants.depth + 1 FROM descendants " +
+            "JOIN people AS child ON child.motherId = descendants.id OR child.fatherId = descendants.id " +
+            "WHERE descendants.depth < :maxDown), " +
+            "core(id, level) AS (" +
+            "SELECT id, -depth FROM ancestors " +
+            "UNION " +
+            "SELECT id, depth FROM descendants), " +
+            "family(id, level) AS (" +
+            "SELECT id, level FROM core " +
+            "UNION " +
+            "SELECT person.spouseId, core.level FROM core " +
+            "JOIN people AS person ON person.id = core.id " +
+            "WHERE person.spouseId IS NOT NULL), " +
+            "neighbourhood(id, level) AS (" +
+            "SELECT id, level FROM family " +
+            "UNION " +
+            "SELECT parent.id, neighbourhood.level - 1 FROM neighbourhood " +
+            "JOIN people AS child ON child.id = neighbourhood.id " +
+            "JOIN people AS parent ON parent.id IN (child.motherId, child.fatherId) " +
+            "WHERE neighbourhood.level > -:maxUp) " +
+            "SELECT * FROM people WHERE id IN (SELECT id FROM neighbourhood) " +
+            "ORDER BY lastName COLLATE NOCASE, firstName COLLATE NOCASE")
+    List<Person> getTreeNeighbourhood(long personId, int maxUp, int maxDown);
+
+    @Query("SELECT id FROM people WHERE motherId = :personId OR fatherId = :personId OR spouseId = :personId")
+    long[] getLinkedIds(long personId);
+
+    @Query("UPDATE people SET motherId = NULL, version = version + 1 WHERE motherId = :personId")
     void clearMotherRef(long personId);
 
-    @Query("UPDATE people SET fatherId = NULL WHERE fatherId = :personId")
+    @Query("UPDATE people SET fatherId = NULL, version = version + 1 WHERE fatherId = :personId")
     void clearFatherRef(long personId);
 
-    @Query("UPDATE people SET spouseId = NULL WHERE spouseId = :personId")
+    @Query("UPDATE people SET spouseId = NULL, version = version + 1 WHERE spouseId = :personId")
     void clearSpouseRef(long personId);
 
     @Query("DELETE FROM people WHERE id = :id")
     void deleteById(long id);
-}
 
+    /**
+     * Writes the person only if their row is still at {@code expectedVersion}, and bumps the
+     * version. Returns false when another write got there first or the row is gone. Room starts
+     * transactions with the write lock held, so the check and the write cannot interleave with
+     * another writer.
+     */
+    @Transaction
+    default boolean updateIfVersion(Person person, long expectedVersion) {
+        Long current = getVersion(person.id);
+        if (current == null || current != expectedVersion) {
+            return false;
+        }
+        person.version = expectedVersion + 1;
+        update(person);
+        return true;
+    }
+
+    @Transaction
+    default long insertRoot(Person person) {
+        clearRoot();
+        person.isRoot = true;
+        return insert(person);
+    }
+
+    /**
+     * Clears every link to the person and deletes them; returns the ids of the unlinked rows.
+     */
+    @Transaction
+    default long[] deleteAndUnlink(long personId) {
+        long[] linkedIds = getLinkedIds(personId);
+        clearMotherRef(personId);
+        clearFatherRef(personId);
+        clearSpouseRef(personId);
+        deleteById(personId);
+        return linkedIds;
+    }
+
+    @Transaction
+    default long insertParent(long childId, Person parent, boolean asMother) {
+        long parentId = insert(parent);
+        Person child = getById(childId);
+        if (child != null) {
+            if (asMother) {
+                child.motherId = parentId;
+            } else {
+                child.fatherId = parentId;
+            }
+            child.updatedAt = parent.updatedAt;
+            child.version++;
+            update(child);
+        }
+        return parentId;
+    }
+
+    /**
+     * Inserts a child of the parent; the parent's spouse becomes the other parent.
+     */
+    @Transaction
+    default long insertChild(long parentId, Person child, boolean parentIsMother) {
+        if (parentIsMother) {
+            child.motherId = parentId;
+        } else {
+            child.fatherId = parentId;
+        }
+        Person parent = getById(parentId);
+        if (parent != null && parent.spouseId != null && parent.spouseId != parentId) {
+            if (parentIsMother) {
+                child.fatherId = parent.spouseId;
+            } else {
+                child.motherId = parent.spouseId;
+            }
+        }
+        return insert(child);
+    }
+
+    @Transaction
+    default long insertSpouse(long personId, Person spouse) {
+        spouse.spouseId = personId;
+        long spouseId = insert(spouse);
+        Person person = getById(personId);
+        if (person != null) {
+            person.spouseId = spouseId;
+            person.updatedAt = spouse.updatedAt;
+            person.version++;
+            update(person);
+        }
+        return spouseId;
+    }
+}
@@ -0,0 +1,146 @@
+package com.abduqodir.qfamily.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Disk cache of finished avatar thumbnails (already cropped and sized), keyed by source URI and
+ * pixel size. Lives in the app cache directory so the system may clear it; files are written to a
+ * temporary name and renamed so a reader never sees a half-written thumbnail.
+ */
+public final class AvatarDiskCache {
+    private static final String DIR_NAME = "avatars";
+    private static final String SUFFIX = ".png";
+    private static final long MAX_BYTES = 16L * 1024 * 1024;
+
+    private static volatile AvatarDiskCache instance;
+
+    private final File dir;
+    private long totalBytes = -1L;
+
+    private AvatarDiskCache(File dir) {
+        this.dir = dir;
+    }
+
+    public static AvatarDiskCache getInstance(Context context) {
+        if (instance == null) {
+            synchronized (AvatarDiskCache.class) {
+                if (instance == null) {
+                    instance = new AvatarDiskCache(new File(context.getApplicationContext().getCacheDir(), DIR_NAME));
+                }
+            }
+        }
+        return instance;
+    }
+
+    public Bitmap get(String uriString, int sizePx, Bitmap.Config config) {
+        File file = fileFor(uriString, sizePx);
+        if (!file.isFile()) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            remove(file);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    public void put(String uriString, int sizePx, Bitmap bitmap) {
+        if (bitmap == null || (!dir.exists() && !dir.mkdirs())) {
+            return;
+        }
+        File file = fileFor(uriString, sizePx);
+        File temp = new File(dir, file.getName() + ".tmp");
+        try (OutputStream output = new FileOutputStream(temp)) {
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, output)) {
+                throw new IOException("compress failed");
+            }
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        synchronized (this) {
+            long previous = file.length();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+            if (totalBytes >= 0) {
+                totalBytes += file.length() - previous;
+            }
+            trimIfNeeded();
+        }
+    }
+
+    private synchronized void remove(File file) {
+        long length = file.length();
+        if (file.delete() && totalBytes >= 0) {
+            totalBytes -= length;
+        }
+    }
+
+    /**
+     * Lists the directory only to learn its size the first time, or when a write pushed the
+     * running total over the limit.
+     */
+    private void trimIfNeeded() {
+        if (totalBytes >= 0 && totalBytes <= MAX_BYTES) {
+            return;
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        if (totalBytes < 0) {
+            totalBytes = 0;
+            for (File file : files) {
+                totalBytes += file.length();
+            }
+            if (totalBytes <= MAX_BYTES) {
+                return;
+            }
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        long target = MAX_BYTES * 3 / 4;
+        for (File file : files) {
+            if (totalBytes <= target) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                totalBytes -= length;
+            }
+        }
+    }
+
+    private File fileFor(String uriString, int sizePx) {
+        return new File(dir, hash(uriString) + "_" + sizePx + SUFFIX);
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package com.abduqodir.qfamily.image;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.ImageDecoder;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ImageView;
+import androidx.annotation.RequiresApi;
+import com.abduqodir.qfamily.util.ImageStorage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide loader for circular avatar bitmaps, shared by the tree and every screen that shows
+ * a person's photo. One memory cache and one worker pool serve all callers; concurrent requests for
+ * the same photo and size are merged, and results are delivered on the main thread.
+ */
+public final class AvatarLoader {
+    private static final int THREAD_COUNT = 2;
+    private static final int CACHE_FRACTION = 8;
+    private static final int POOL_FRACTION = 4;
+
+    /**
+     * Priority for avatars the user is looking at right now, ahead of any tree request.
+     */
+    public static final float PRIORITY_IMMEDIATE = -1f;
+
+    public interface Listener {
+        void onAvatarLoaded(String photoUri, int sizePx, Bitmap bitmap);
+    }
+
+    private static volatile AvatarLoader instance;
+
+    private final Context context;
+    private final AvatarDiskCache diskCache;
+    private final AvatarMemoryCache memoryCache;
+    private final Map<String, Request> inFlight = new ConcurrentHashMap<>();
+    private final Set<String> failedKeys = ConcurrentHashMap.newKeySet();
+    private final DecodeScheduler scheduler = new DecodeScheduler(THREAD_COUNT, "avatar-decode");
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<ImageView, Binding> bindings = new WeakHashMap<>();
+    private final BitmapPool bitmapPool;
+    private final long cacheBytes;
+    private volatile boolean hardwareBitmaps = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+
+    private AvatarLoader(Context context) {
+        this.context = context;
+        this.diskCache = AvatarDiskCache.getInstance(context);
+        this.cacheBytes = memoryCacheSizeKb(context) * 1024L;
+        this.memoryCache = new AvatarMemoryCache(cacheBytes);
+        this.bitmapPool = new BitmapPool(cacheBytes / POOL_FRACTION);
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trimMemory(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                trimMemory(TRIM_MEMORY_COMPLETE);
+            }
+        });
+    }
+
+    /**
+     * Sizes the cache from the per-app memory class rather than the current heap limit, and halves
+     * it on low-RAM devices.
+     */
+    private static int memoryCacheSizeKb(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null) {
+            return (int) (Runtime.getRuntime().maxMemory() / 1024 / CACHE_FRACTION);
+        }
+        int fraction = activityManager.isLowRamDevice() ? CACHE_FRACTION * 2 : CACHE_FRACTION;
+        return activityManager.getMemoryClass() * 1024 / fraction;
+    }
+
+    /**
+     * Under pressure the memory cache shrinks from its largest tiers down; the scratch pool goes first.
+     */
+    private void trimMemory(int level) {
+        bitmapPool.clear();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            memoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            memoryCache.trimToSize(cacheBytes / 2);
+        }
+    }
+
+    public static AvatarLoader getInstance(Context context) {
+        if (instance == null) {
+            synchronized (AvatarLoader.class) {
+                if (instance == null) {
+                    instance = new AvatarLoader(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    public Bitmap getCached(String photoUri, int sizePx) {
+        return memoryCache.get(key(photoUri, sizePx), sizePx);
+    }
+
+    /**
+     * Finished avatars are moved to hardware bitmaps on API 26+ unless a caller needs to draw them
+     * into a software canvas. Only affects avatars decoded after the call.
+     */
+    public void setHardwareBitmapsEnabled(boolean enabled) {
+        hardwareBitmaps = enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+    }
+
+    public void load(String photoUri, int sizePx, Listener listener) {
+        load(photoUri, sizePx, listener, PRIORITY_IMMEDIATE);
+    }
+
+    /**
+     * Starts loading unless the bitmap is cached or the photo is known to be missing or
+     * undecodable; an in-flight request for the same photo is shared. Each listener has its own
+     * priority, replaced by later calls with the same listener, and the request runs at the most
+     * urgent priority among the listeners still attached. Lower values are decoded first.
+     * {@code listener} is called on the main thread once the request finishes.
+     */
+    public void load(String photoUri, int sizePx, Listener listener, float priority) {
+        String key = key(photoUri, sizePx);
+        if (failedKeys.contains(key)) {
+            return;
+        }
+        while (true) {
+            Request existing = inFlight.get(key);
+            if (existing == null) {
+                Request created = new Request(photoUri, sizePx, key, priority);
+                existing = inFlight.putIfAbsent(key, created);
+                if (existing == null) {
+                    created.attach(listener, priority);
+                    scheduler.submit(created.task);
+                    return;
+                }
+            }
+            if (existing.attach(listener, priority)) {
+                return;
+            }
+            inFlight.remove(key, existing);
+        }
+    }
+
+    /**
+     * Detaches {@code listener}; a request nobody listens to any more is dropped if it has not started.
+     */
+    public void cancel(String photoUri, int sizePx, Listener listener) {
+        Request request = inFlight.get(key(photoUri, sizePx));
+        if (request != null) {
+            detach(request, listener);
+        }
+    }
+
+    public void cancel(Listener listener) {
+        for (Request request : inFlight.values()) {
+            detach(request, listener);
+        }
+    }
+
+    private void detach(Request request, Listener listener) {
+        if (request.detach(listener)) {
+            inFlight.remove(request.key, request);
+        }
+    }
+
+    /**
+     * Shows the avatar in {@code view}, replacing whatever request the view was bound to before.
+     * Must be called on the main thread. {@code listener} may be null and receives a null bitmap when
+     * the photo cannot be decoded.
+     */
+    public void bind(ImageView view, String photoUri, int sizePx, Listener listener) {
+        unbind(view);
+        String key = key(photoUri, sizePx);
+        Bitmap cached = memoryCache.get(key, sizePx);
+        if (cached != null || failedKeys.contains(key)) {
+            if (cached != null) {
+                view.setImageBitmap(cached);
+            }
+            if (listener != null) {
+                listener.onAvatarLoaded(photoUri, sizePx, cached);
+            }
+            return;
+        }
+        view.setImageDrawable(null);
+        Binding binding = new Binding(view, listener);
+        bindings.put(view, binding);
+        load(photoUri, sizePx, binding, PRIORITY_IMMEDIATE);
+    }
+
+    public void unbind(ImageView view) {
+        Binding binding = bindings.remove(view);
+        if (binding != null) {
+            cancel(binding);
+        }
+    }
+
+    /**
+     * Only photos that are missing or cannot be decoded are remembered as failed; I/O errors and
+     * running out of memory are left for the next request to retry. The request always completes,
+     * so it never stays in {@link #inFlight}.
+     */
+    private void run(Request request) {
+        Bitmap bitmap = null;
+        boolean undecodable = false;
+        try {
+            boolean hardware = hardwareBitmaps;
+            bitmap = diskCache.get(request.photoUri, request.sizePx,
+                    hardware ? Bitmap.Config.HARDWARE : Bitmap.Config.ARGB_8888);
+            if (bitmap == null) {
+                Bitmap circle = decodeCircleBitmap(request.photoUri, request.sizePx);
+                undecodable = circle == null;
+                diskCache.put(request.photoUri, request.sizePx, circle);
+                bitmap = hardware ? toHardware(circle) : circle;
+            }
+        } catch (IOException | RuntimeException e) {
+            undecodable = isUndecodable(e);
+        } catch (OutOfMemoryError e) {
+            bitmapPool.clear();
+        } finally {
+            finish(request, bitmap, undecodable);
+        }
+    }
+
+    private static boolean isUndecodable(Exception e) {
+        return e instanceof FileNotFoundException
+                || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && e instanceof ImageDecoder.DecodeException);
+    }
+
+    private void finish(Request request, Bitmap bitmap, boolean undecodable) {
+        if (bitmap != null) {
+            memoryCache.put(request.key, request.sizePx, bitmap);
+        } else if (undecodable) {
+            failedKeys.add(request.key);
+        }
+        inFlight.remove(request.key);
+        List<Listener> listeners = request.complete(bitmap);
+        Bitmap result = bitmap;
+        if (!listeners.isEmpty()) {
+            mainHandler.post(() -> {
+                for (Listener listener : listeners) {
+                    listener.onAvatarLoaded(request.photoUri, request.sizePx, result);
+                }
+            });
+        }
+    }
+
+    private Bitmap toHardware(Bitmap circle) {
+        if (circle == null) {
+            return null;
+        }
+        Bitmap hardware = circle.copy(Bitmap.Config.HARDWARE, false);
+        if (hardware == null) {
+            return circle;
+        }
+        bitmapPool.put(circle);
+        return hardware;
+    }
+
+    /**
+     * Returns null when the photo is there but the platform cannot decode it.
+     */
+    private Bitmap decodeCircleBitmap(String photoUri, int size) throws IOException {
+        Uri uri = Uri.parse(ImageStorage.renditionFor(photoUri, size));
+        Bitmap decoded = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+                ? decodeWithImageDecoder(uri, size)
+                : decodeSampledBitmap(uri, size);
+        if (decoded == null) {
+            return null;
+        }
+        Bitmap output = bitmapPool.get(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(output);
+        BitmapShader shader = new BitmapShader(decoded, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        Matrix matrix = new Matrix();
+        float scale = Math.max((float) size / decoded.getWidth(), (float) size / decoded.getHeight());
+        float dx = (size - decoded.getWidth() * scale) * 0.5f;
+        float dy = (size - decoded.getHeight() * scale) * 0.5f;
+        matrix.setScale(scale, scale);
+        matrix.postTranslate(dx, dy);
+        shader.setLocalMatrix(matrix);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setShader(shader);
+        float radius = size / 2f;
+        canvas.drawCircle(radius, radius, radius, paint);
+        if (decoded.isMutable()) {
+            bitmapPool.put(decoded);
+        } else {
+            decoded.recycle();
+        }
+        return output;
+    }
+
+    /**
+     * Lets the platform decoder downscale while decoding; the low-RAM policy allows RGB_565 for
+     * opaque photos, which is plenty for a source that only feeds the circle shader.
+     */
+    @RequiresApi(Build.VERSION_CODES.P)
+    private Bitmap decodeWithImageDecoder(Uri uri, int size) throws IOException {
+        ImageDecoder.Source source = ImageDecoder.createSource(context.getContentResolver(), uri);
+        return ImageDecoder.decodeBitmap(source, (decoder, info, src) -> {
+            int width = info.getSize().getWidth();
+            int height = info.getSize().getHeight();
+            float scale = Math.min(1f, Math.max((float) size / width, (float) size / height));
+            decoder.setTargetSize(Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)));
+            decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+            decoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
+        });
+    }
+
+    private Bitmap decodeSampledBitmap(Uri uri, int size) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream boundsStream = context.getContentResolver().openInputStream(uri)) {
+            if (boundsStream == null) {
+                return null;
+            }
+            BitmapFactory.decodeStream(boundsStream, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = calculateInSampleSize(options, size, size);
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        options.inBitmap = bitmapPool.getForDecode(width, height, Bitmap.Config.RGB_565);
+        try {
+            return decodeStream(uri, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            bitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            return decodeStream(uri, options);
+        }
+    }
+
+    private Bitmap decodeStream(Uri uri, BitmapFactory.Options options) throws IOException {
+        try (InputStream stream = context.getContentResolver().openInputStream(uri)) {
+            if (stream == null) {
+                return null;
+            }
+            return BitmapFactory.decodeStream(stream, null, options);
+        }
+    }
+
+    private int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        int height = options.outHeight;
+        int width = options.outWidth;
+        int inSampleSize = 1;
+        if (height > reqHeight || width > reqWidth) {
+            int halfHeight = height / 2;
+            int halfWidth = width / 2;
+            while ((halfHeight / inSampleSize) >= reqHeight
+                    && (halfWidth / inSampleSize) >= reqWidth) {
+                inSampleSize *= 2;
+            }
+        }
+        return inSampleSize;
+    }
+
+    private static String key(String photoUri, int sizePx) {
+        return photoUri + "@" + sizePx;
+    }
+
+    private final class Request {
+        final String photoUri;
+        final int sizePx;
+        final String key;
+        final DecodeScheduler.Task task;
+        private final Map<Listener, Float> listeners = new LinkedHashMap<>();
+        // Priority asked for by calls without a listener, which can never be withdrawn.
+        private float unlistenedPriority = Float.POSITIVE_INFINITY;
+        private boolean done;
+        private boolean cancelled;
+        private Bitmap result;
+
+        Request(String photoUri, int sizePx, String key, float priority) {
+            this.photoUri = photoUri;
+            this.sizePx = sizePx;
+            this.key = key;
+            this.task = new DecodeScheduler.Task(() -> run(this), priority);
+        }
+
+        /**
+         * Returns false if the request was cancelled and a fresh one has to be created.
+         */
+        boolean attach(Listener listener, float priority) {
+            Bitmap finished;
+            synchronized (this) {
+                if (cancelled) {
+                    return false;
+                }
+                if (!done) {
+                    if (listener != null) {
+                        listeners.put(listener, priority);
+                    } else {
+                        unlistenedPriority = Math.min(unlistenedPriority, priority);
+                    }
+                    updatePriority();
+                    return true;
+                }
+                finished = result;
+            }
+            if (listener != null) {
+                mainHandler.post(() -> listener.onAvatarLoaded(photoUri, sizePx, finished));
+            }
+            return true;
+        }
+
+        /**
+         * Returns true if this was the last listener and the pending decode was withdrawn.
+         */
+        synchronized boolean detach(Listener listener) {
+            if (listeners.remove(listener) == null) {
+                return cancelled;
+            }
+            if (listeners.isEmpty() && unlistenedPriority == Float.POSITIVE_INFINITY
+                    && !done && !cancelled && scheduler.cancel(task)) {
+                cancelled = true;
+            } else {
+                updatePriority();
+            }
+            return cancelled;
+        }
+
+        /**
+         * Moves the task to the most urgent priority among the callers still waiting for it, so a
+         * listener that lowers or withdraws its priority also demotes the decode.
+         */
+        private void updatePriority() {
+            float priority = unlistenedPriority;
+            for (float listenerPriority : listeners.values()) {
+                priority = Math.min(priority, listenerPriority);
+            }
+            if (priority != Float.POSITIVE_INFINITY) {
+                task.priority = priority;
+            }
+        }
+
+        synchronized List<Listener> complete(Bitmap bitmap) {
+            done = true;
+            result = bitmap;
+            List<Listener> snapshot = new ArrayList<>(listeners.keySet());
+            listeners.clear();
+            return snapshot;
+        }
+    }
+
+    private final class Binding implements Listener {
+        private final WeakReference<ImageView> viewRef;
+        private final Listener listener;
+
+        Binding(ImageView view, Listener listener) {
+            this.viewRef = new WeakReference<>(view);
+            this.listener = listener;
+        }
+
+        @Override
+        public void onAvatarLoaded(String photoUri, int sizePx, Bitmap bitmap) {
+            ImageView view = viewRef.get();
+            if (view == null || bindings.get(view) != this) {
+                return;
+            }
+            bindings.remove(view);
+            if (bitmap != null) {
+                view.setImageBitmap(bitmap);
+            }
+            if (listener != null) {
+                listener.onAvatarLoaded(photoUri, sizePx, bitmap);
+            }
+        }
+    }
+}
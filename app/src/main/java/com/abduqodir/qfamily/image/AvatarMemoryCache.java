@@ -0,0 +1,58 @@
+package com.abduqodir.qfamily.image;
+
+import android.graphics.Bitmap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Memory cache of finished avatars grouped by pixel size. When over budget it evicts from the
+ * largest size first (least recently used within a size), so zoomed-in tiers go before the base
+ * ones every screen falls back to.
+ */
+final class AvatarMemoryCache {
+    private final long maxBytes;
+    private final TreeMap<Integer, LinkedHashMap<String, Bitmap>> bySize = new TreeMap<>();
+    private long sizeBytes;
+
+    AvatarMemoryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized Bitmap get(String key, int sizePx) {
+        LinkedHashMap<String, Bitmap> tier = bySize.get(sizePx);
+        return tier != null ? tier.get(key) : null;
+    }
+
+    synchronized void put(String key, int sizePx, Bitmap bitmap) {
+        LinkedHashMap<String, Bitmap> tier = bySize.get(sizePx);
+        if (tier == null) {
+            tier = new LinkedHashMap<>(16, 0.75f, true);
+            bySize.put(sizePx, tier);
+        }
+        Bitmap previous = tier.put(key, bitmap);
+        if (previous != null) {
+            sizeBytes -= previous.getByteCount();
+        }
+        sizeBytes += bitmap.getByteCount();
+        trimToSize(maxBytes);
+    }
+
+    synchronized void evictAll() {
+        bySize.clear();
+        sizeBytes = 0L;
+    }
+
+    synchronized void trimToSize(long targetBytes) {
+        while (sizeBytes > targetBytes && !bySize.isEmpty()) {
+            Map.Entry<Integer, LinkedHashMap<String, Bitmap>> largest = bySize.lastEntry();
+            Iterator<Bitmap> iterator = largest.getValue().values().iterator();
+            sizeBytes -= iterator.next().getByteCount();
+            iterator.remove();
+            if (largest.getValue().isEmpty()) {
+                bySize.remove(largest.getKey());
+            }
+        }
+    }
+}
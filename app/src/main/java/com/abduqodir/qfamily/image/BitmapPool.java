@@ -0,0 +1,112 @@
+package com.abduqodir.qfamily.image;
+
+import android.graphics.Bitmap;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Size-bucketed pool of mutable scratch bitmaps for {@code inBitmap} decodes and avatar canvases.
+ * Only bitmaps that no view can still be drawing may be returned here.
+ */
+final class BitmapPool {
+    private static final int MAX_OVERSIZE_FACTOR = 4;
+
+    private final long maxBytes;
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> byAllocation = new TreeMap<>();
+    private final ArrayDeque<Bitmap> insertionOrder = new ArrayDeque<>();
+    private long pooledBytes;
+
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a pooled bitmap reconfigured to the requested size, or a new one.
+     */
+    synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap reusable = take(byteCount(width, height, config));
+        if (reusable != null) {
+            try {
+                reusable.reconfigure(width, height, config);
+                reusable.eraseColor(0);
+                return reusable;
+            } catch (IllegalArgumentException e) {
+                reusable.recycle();
+            }
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Returns a pooled bitmap large enough to decode into, or null if none fits.
+     */
+    synchronized Bitmap getForDecode(int width, int height, Bitmap.Config config) {
+        return take(byteCount(width, height, config));
+    }
+
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() == null || bitmap.getAllocationByteCount() > maxBytes / 2) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        byAllocation.computeIfAbsent(size, k -> new ArrayDeque<>()).addLast(bitmap);
+        insertionOrder.addLast(bitmap);
+        pooledBytes += size;
+        while (pooledBytes > maxBytes && !insertionOrder.isEmpty()) {
+            Bitmap oldest = insertionOrder.pollFirst();
+            if (removeFromBucket(oldest)) {
+                pooledBytes -= oldest.getAllocationByteCount();
+                oldest.recycle();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        for (Bitmap bitmap : insertionOrder) {
+            bitmap.recycle();
+        }
+        insertionOrder.clear();
+        byAllocation.clear();
+        pooledBytes = 0L;
+    }
+
+    private Bitmap take(int requiredBytes) {
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = byAllocation.ceilingEntry(requiredBytes);
+        if (entry == null || entry.getKey() > (long) requiredBytes * MAX_OVERSIZE_FACTOR) {
+            return null;
+        }
+        Bitmap bitmap = entry.getValue().pollLast();
+        if (entry.getValue().isEmpty()) {
+            byAllocation.remove(entry.getKey());
+        }
+        insertionOrder.remove(bitmap);
+        pooledBytes -= bitmap.getAllocationByteCount();
+        return bitmap;
+    }
+
+    private boolean removeFromBucket(Bitmap bitmap) {
+        ArrayDeque<Bitmap> bucket = byAllocation.get(bitmap.getAllocationByteCount());
+        if (bucket == null) {
+            return false;
+        }
+        Iterator<Bitmap> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == bitmap) {
+                iterator.remove();
+                if (bucket.isEmpty()) {
+                    byAllocation.remove(bitmap.getAllocationByteCount());
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int byteCount(int width, int height, Bitmap.Config config) {
+        int bytesPerPixel = config == Bitmap.Config.RGB_565 ? 2 : 4;
+        return width * height * bytesPerPixel;
+    }
+}
@@ -0,0 +1,79 @@
+package com.abduqodir.qfamily.image;
+
+import android.os.Process;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed pool of decode workers that always takes the pending task with the lowest priority value.
+ * Priorities may change while a task waits, so the queue is a plain list scanned on every take;
+ * it only ever holds the avatars around the viewport.
+ */
+final class DecodeScheduler {
+    private final List<Task> pending = new ArrayList<>();
+
+    DecodeScheduler(int threadCount, String name) {
+        for (int i = 0; i < threadCount; i++) {
+            Thread worker = new Thread(this::workLoop, name + "-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    void submit(Task task) {
+        synchronized (pending) {
+            pending.add(task);
+            pending.notify();
+        }
+    }
+
+    /**
+     * Removes the task if no worker has picked it up yet.
+     */
+    boolean cancel(Task task) {
+        synchronized (pending) {
+            return pending.remove(task);
+        }
+    }
+
+    private void workLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        while (true) {
+            Task task;
+            synchronized (pending) {
+                while (pending.isEmpty()) {
+                    try {
+                        pending.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                int best = 0;
+                for (int i = 1; i < pending.size(); i++) {
+                    if (pending.get(i).priority < pending.get(best).priority) {
+                        best = i;
+                    }
+                }
+                int last = pending.size() - 1;
+                task = pending.get(best);
+                pending.set(best, pending.get(last));
+                pending.remove(last);
+            }
+            try {
+                task.work.run();
+            } catch (RuntimeException e) {
+                // A failed decode must not take the worker down with it.
+            }
+        }
+    }
+
+    static final class Task {
+        final Runnable work;
+        volatile float priority;
+
+        Task(Runnable work, float priority) {
+            this.work = work;
+            this.priority = priority;
+        }
+    }
+}
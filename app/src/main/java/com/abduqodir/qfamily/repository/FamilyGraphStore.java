@@ -0,0 +1,213 @@
+package com.abduqodir.qfamily.repository;
+
+import com.abduqodir.qfamily.data.Person;
+import com.abduqodir.qfamily.data.PersonDao;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process-wide copy of every person plus a parent-to-children index, so relationship lookups are
+ * answered from memory. Filled once in the background; afterwards the repository pushes
+ * each committed write through {@link #apply}, in commit order from the single writer thread.
+ * Callers always get copies, never the cached instances.
+ */
+final class FamilyGraphStore {
+    private static final FamilyGraphStore INSTANCE = new FamilyGraphStore();
+
+    private final Map<Long, Person> people = new HashMap<>();
+    private final Map<Long, Set<Long>> childrenByParent = new HashMap<>();
+    private boolean loaded;
+    private boolean loading;
+    // Counts applied writes so a load that raced one can tell its snapshot is stale.
+    private long writeCount;
+
+    private FamilyGraphStore() {
+    }
+
+    static FamilyGraphStore get() {
+        return INSTANCE;
+    }
+
+    synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * True for the one caller that should schedule {@link #ensureLoaded}; false while a load is
+     * pending or done.
+     */
+    synchronized boolean claimLoad() {
+        if (loaded || loading) {
+            return false;
+        }
+        loading = true;
+        return true;
+    }
+
+    /**
+     * Loads every person unless already loaded, retrying when a write lands while the snapshot is
+     * being read.
+     */
+    void ensureLoaded(PersonDao dao) {
+        try {
+            load(dao);
+        } finally {
+            synchronized (this) {
+                loading = false;
+            }
+        }
+    }
+
+    private void load(PersonDao dao) {
+        while (true) {
+            long before;
+            synchronized (this) {
+                if (loaded) {
+                    return;
+                }
+                before = writeCount;
+            }
+            List<Person> all = dao.getAll();
+            synchronized (this) {
+                if (loaded) {
+                    return;
+                }
+                if (writeCount == before) {
+                    for (Person person : all) {
+                        put(person);
+                    }
+                    loaded = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Brings the cache in line with a committed write by re-reading the rows it touched, plus any
+     * cached root the write demoted, since clearing the root flag also bumps that row's version.
+     */
+    void apply(PersonChange change, PersonDao dao) {
+        synchronized (this) {
+            writeCount++;
+            if (!loaded) {
+                return;
+            }
+        }
+        long[] ids = new long[change.insertedIds.length + change.updatedIds.length];
+        System.arraycopy(change.insertedIds, 0, ids, 0, change.insertedIds.length);
+        System.arraycopy(change.updatedIds, 0, ids, change.insertedIds.length, change.updatedIds.length);
+        List<Person> fresh = ids.length > 0 ? new ArrayList<>(dao.getByIds(ids)) : new ArrayList<>();
+        long[] demoted = demotedRoots(fresh);
+        if (demoted.length > 0) {
+            fresh.addAll(dao.getByIds(demoted));
+        }
+        synchronized (this) {
+            for (long id : change.deletedIds) {
+                remove(id);
+            }
+            for (Person person : fresh) {
+                put(person);
+            }
+        }
+    }
+
+    /**
+     * Cached roots that are not among {@code fresh} when {@code fresh} holds a new root.
+     */
+    private synchronized long[] demotedRoots(List<Person> fresh) {
+        Set<Long> freshIds = new HashSet<>();
+        boolean newRoot = false;
+        for (Person person : fresh) {
+            freshIds.add(person.id);
+            newRoot |= person.isRoot;
+        }
+        if (!newRoot) {
+            return new long[0];
+        }
+        List<Long> demoted = new ArrayList<>();
+        for (Person cached : people.values()) {
+            if (cached.isRoot && !freshIds.contains(cached.id)) {
+                demoted.add(cached.id);
+            }
+        }
+        long[] result = new long[demoted.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = demoted.get(i);
+        }
+        return result;
+    }
+
+    synchronized Person getPerson(long id) {
+        return copyOf(people.get(id));
+    }
+
+    synchronized List<Person> getChildren(long id) {
+        List<Person> children = new ArrayList<>();
+        Set<Long> childIds = childrenByParent.get(id);
+        if (childIds != null) {
+            for (long childId : childIds) {
+                children.add(copyOf(people.get(childId)));
+            }
+        }
+        return children;
+    }
+
+    synchronized PersonDetails getDetails(long id) {
+        Person person = people.get(id);
+        if (person == null) {
+            return null;
+        }
+        List<Person> parents = new ArrayList<>(2);
+        if (person.motherId != null && people.containsKey(person.motherId)) {
+            parents.add(copyOf(people.get(person.motherId)));
+        }
+        if (person.fatherId != null && people.containsKey(person.fatherId)) {
+            parents.add(copyOf(people.get(person.fatherId)));
+        }
+        Person spouse = person.spouseId != null ? copyOf(people.get(person.spouseId)) : null;
+        return new PersonDetails(copyOf(person), spouse, parents, getChildren(id));
+    }
+
+    private void put(Person person) {
+        remove(person.id);
+        people.put(person.id, person);
+        if (person.motherId != null) {
+            childrenByParent.computeIfAbsent(person.motherId, key -> new LinkedHashSet<>()).add(person.id);
+        }
+        if (person.fatherId != null) {
+            childrenByParent.computeIfAbsent(person.fatherId, key -> new LinkedHashSet<>()).add(person.id);
+        }
+    }
+
+    private void remove(long id) {
+        Person previous = people.remove(id);
+        if (previous == null) {
+            return;
+        }
+        unlinkChild(previous.motherId, id);
+        unlinkChild(previous.fatherId, id);
+    }
+
+    private void unlinkChild(Long parentId, long childId) {
+        if (parentId == null) {
+            return;
+        }
+        Set<Long> children = childrenByParent.get(parentId);
+        if (children != null) {
+            children.remove(childId);
+            if (children.isEmpty()) {
+                childrenByParent.remove(parentId);
+            }
+        }
+    }
+
+    private static Person copyOf(Person person) {
+        return person != null ? person.copy() : null;
+    }
+}
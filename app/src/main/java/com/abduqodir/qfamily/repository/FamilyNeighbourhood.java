@@ -0,0 +1,14 @@
+package com.abduqodir.qfamily.repository;
+
+import com.abduqodir.qfamily.data.Person;
+import java.util.List;
+
+public class FamilyNeighbourhood {
+    public final Person root;
+    public final List<Person> people;
+
+    public FamilyNeighbourhood(Person root, List<Person> people) {
+        this.root = root;
+        this.people = people;
+    }
+}
@@ -0,0 +1,86 @@
+package com.abduqodir.qfamily.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ids of the people one repository write touched. Rows whose links to a deleted person were
+ * cleared are reported as updated.
+ */
+public class PersonChange {
+    private static final long[] NONE = new long[0];
+
+    public final long[] insertedIds;
+    public final long[] updatedIds;
+    public final long[] deletedIds;
+
+    public PersonChange(long[] insertedIds, long[] updatedIds, long[] deletedIds) {
+        this.insertedIds = insertedIds;
+        this.updatedIds = updatedIds;
+        this.deletedIds = deletedIds;
+    }
+
+    public PersonChange plus(PersonChange other) {
+        return new PersonChange(concat(insertedIds, other.insertedIds), concat(updatedIds, other.updatedIds),
+                concat(deletedIds, other.deletedIds));
+    }
+
+    static PersonChange inserted(long id) {
+        return new PersonChange(new long[] {id}, NONE, NONE);
+    }
+
+    static PersonChange insertedAndUpdated(long insertedId, long updatedId) {
+        return new PersonChange(new long[] {insertedId}, new long[] {updatedId}, NONE);
+    }
+
+    static PersonChange updated(long id) {
+        return new PersonChange(NONE, new long[] {id}, NONE);
+    }
+
+    static PersonChange deleted(long id, long[] unlinkedIds) {
+        return new PersonChange(NONE, unlinkedIds, new long[] {id});
+    }
+
+    static final class Builder {
+        private final List<Long> inserted = new ArrayList<>();
+        private final List<Long> updated = new ArrayList<>();
+        private final List<Long> deleted = new ArrayList<>();
+
+        void inserted(long id) {
+            inserted.add(id);
+        }
+
+        void updated(long id) {
+            updated.add(id);
+        }
+
+        void updated(long[] ids) {
+            for (long id : ids) {
+                updated.add(id);
+            }
+        }
+
+        void deleted(long id) {
+            deleted.add(id);
+        }
+
+        PersonChange build() {
+            return new PersonChange(toArray(inserted), toArray(updated), toArray(deleted));
+        }
+
+        private static long[] toArray(List<Long> ids) {
+            long[] result = new long[ids.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = ids.get(i);
+            }
+            return result;
+        }
+    }
+
+    private static long[] concat(long[] first, long[] second) {
+        long[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,5 @@
+package com.abduqodir.qfamily.repository;
+
+public interface PersonChangeListener {
+    void onPeopleChanged(PersonChange change);
+}
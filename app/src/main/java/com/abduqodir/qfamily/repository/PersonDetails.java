@@ -0,0 +1,18 @@
+package com.abduqodir.qfamily.repository;
+
+import com.abduqodir.qfamily.data.Person;
+import java.util.List;
+
+public class PersonDetails {
+    public final Person person;
+    public final Person spouse;
+    public final List<Person> parents;
+    public final List<Person> children;
+
+    public PersonDetails(Person person, Person spouse, List<Person> parents, List<Person> children) {
+        this.person = person;
+        this.spouse = spouse;
+        this.parents = parents;
+        this.children = children;
+    }
+}
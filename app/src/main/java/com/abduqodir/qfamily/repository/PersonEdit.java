@@ -0,0 +1,12 @@
+package com.abduqodir.qfamily.repository;
+
+import com.abduqodir.qfamily.data.Person;
+
+/**
+ * Change to one person, applied by the repository to a freshly read copy of the row. It runs
+ * exactly once, on the database writer thread, so it must not touch views or other main-thread
+ * state.
+ */
+public interface PersonEdit {
+    void apply(Person person);
+}
@@ -0,0 +1,79 @@
+package com.abduqodir.qfamily.repository;
+
+import com.abduqodir.qfamily.data.Person;
+import com.abduqodir.qfamily.data.PersonDao;
+import java.util.ConcurrentModificationException;
+
+/**
+ * One write in a {@link PersonRepository#applyBatch} call. Mutations run in order inside the
+ * batch's transaction; an insert writes the new id back into its person before the next one runs.
+ */
+public abstract class PersonMutation {
+    abstract void apply(PersonDao dao, long now, PersonChange.Builder changes);
+
+    public static PersonMutation insert(Person person) {
+        return new PersonMutation() {
+            @Override
+            void apply(PersonDao dao, long now, PersonChange.Builder changes) {
+                person.createdAt = now;
+                person.updatedAt = now;
+                person.id = dao.insert(person);
+                changes.inserted(person.id);
+            }
+        };
+    }
+
+    /**
+     * Writes the whole person, failing the batch if the row changed since {@code person} was read.
+     * {@code person} is left untouched unless the write goes through, which gives it the new
+     * version and update time.
+     */
+    public static PersonMutation update(Person person) {
+        return new PersonMutation() {
+            @Override
+            void apply(PersonDao dao, long now, PersonChange.Builder changes) {
+                Person row = person.copy();
+                row.updatedAt = now;
+                if (!dao.updateIfVersion(row, person.version)) {
+                    throw new ConcurrentModificationException("Person " + person.id + " changed");
+                }
+                person.updatedAt = row.updatedAt;
+                person.version = row.version;
+                changes.updated(person.id);
+            }
+        };
+    }
+
+    /**
+     * Applies {@code edit} to the row as it is inside the batch's transaction, failing the batch
+     * if the row is no longer at {@code expectedVersion}, the version the caller last saw; skipped
+     * when the person does not exist.
+     */
+    public static PersonMutation edit(long personId, long expectedVersion, PersonEdit edit) {
+        return new PersonMutation() {
+            @Override
+            void apply(PersonDao dao, long now, PersonChange.Builder changes) {
+                Person person = dao.getById(personId);
+                if (person == null) {
+                    return;
+                }
+                edit.apply(person);
+                person.updatedAt = now;
+                if (!dao.updateIfVersion(person, expectedVersion)) {
+                    throw new ConcurrentModificationException("Person " + personId + " changed");
+                }
+                changes.updated(personId);
+            }
+        };
+    }
+
+    public static PersonMutation delete(long personId) {
+        return new PersonMutation() {
+            @Override
+            void apply(PersonDao dao, long now, PersonChange.Builder changes) {
+                changes.updated(dao.deleteAndUnlink(personId));
+                changes.deleted(personId);
+            }
+        };
+    }
+}
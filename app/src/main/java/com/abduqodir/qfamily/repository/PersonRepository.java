@@ -3,27 +3,75 @@ package com.abduqodir.qfamily.repository;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.room.InvalidationTracker;
 import com.abduqodir.qfamily.data.AppDatabase;
+import com.abduqodir.qfamily.data.DatabaseScheduler;
 import com.abduqodir.qfamily.data.Person;
+import com.abduqodir.qfamily.data.PersonDao;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class PersonRepository {
+    private static final Set<PersonChangeListener> changeListeners = new CopyOnWriteArraySet<>();
+    private static final AtomicLong versionCounter = new AtomicLong();
+    private static final MutableLiveData<Long> dataVersion = new MutableLiveData<>(0L);
+    private static final AtomicBoolean trackingPeople = new AtomicBoolean();
+
     private final AppDatabase database;
+    private final FamilyGraphStore graphStore = FamilyGraphStore.get();
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     public PersonRepository(Context context) {
         database = AppDatabase.getInstance(context.getApplicationContext());
+        if (trackingPeople.compareAndSet(false, true)) {
+            database.getInvalidationTracker().addObserver(new InvalidationTracker.Observer("people") {
+                @Override
+                public void onInvalidated(Set<String> tables) {
+                    dataVersion.postValue(versionCounter.incrementAndGet());
+                }
+            });
+        }
+        preloadGraphStore();
+    }
+
+    /**
+     * Monotonically increasing version of the people table, bumped by Room's invalidation tracker
+     * after every committed write from any source. Bumps posted in quick succession reach observers
+     * as one value.
+     */
+    public LiveData<Long> getDataVersion() {
+        return dataVersion;
+    }
+
+    /**
+     * Listeners hear about every successful write made through any repository instance, on the
+     * main thread and before the write's own callback.
+     */
+    public void addChangeListener(PersonChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(PersonChangeListener listener) {
+        changeListeners.remove(listener);
     }
 
     public void insertRootPerson(Person person, RepositoryCallback<Long> callback) {
-        AppDatabase.getDatabaseExecutor().execute(() -> {
+        AppDatabase.getScheduler().write(DatabaseScheduler.PRIORITY_USER_BLOCKING, () -> {
             try {
-                database.personDao().clearRoot();
-                person.isRoot = true;
                 long now = System.currentTimeMillis();
                 person.createdAt = now;
                 person.updatedAt = now;
-                long id = database.personDao().insert(person);
+                long id = database.personDao().insertRoot(person);
+                publishChange(PersonChange.inserted(id));
                 postSuccess(callback, id);
             } catch (Throwable t) {
                 postError(callback, t);
@@ -32,12 +80,13 @@ public class PersonRepository {
     }
 
     public void insertPerson(Person person, RepositoryCallback<Long> callback) {
-        AppDatabase.getDatabaseExecutor().execute(() -> {
+        AppDatabase.getScheduler().write(DatabaseScheduler.PRIORITY_USER_BLOCKING, () -> {
             try {
                 long now = System.currentTimeMillis();
                 person.createdAt = now;
                 person.updatedAt = now;
                 long id = database.personDao().insert(person);
+                publishChange(PersonChange.inserted(id));
                 postSuccess(callback, id);
             } catch (Throwable t) {
                 postError(callback, t);
@@ -45,15 +94,41 @@ public class PersonRepository {
         });
     }
 
-    public void updatePerson(Person person) {
-        updatePerson(person, null);
+    /**
+     * Applies {@code edit} to the person as stored and writes it back. Writes run one at a time, so
+     * nothing can change the row between the read and the write. Callers never hand the repository
+     * an instance they keep using. Completes with false when the person no longer exists.
+     */
+    public void updatePerson(long personId, PersonEdit edit, RepositoryCallback<Boolean> callback) {
+        AppDatabase.getScheduler().write(DatabaseScheduler.PRIORITY_USER_BLOCKING, () -> {
+            try {
+                Person person = database.personDao().getById(personId);
+                postSuccess(callback, person != null && writeEdit(person, person.version, edit));
+            } catch (Throwable t) {
+                postError(callback, t);
+            }
+        });
     }
 
-    public void updatePerson(Person person, RepositoryCallback<Boolean> callback) {
-        AppDatabase.getDatabaseExecutor().execute(() -> {
+    /**
+     * Like {@link #updatePerson(long, PersonEdit, RepositoryCallback)}, but only if the row is still
+     * at {@code expectedVersion}, the version the caller's screen was showing. Fails with
+     * {@link ConcurrentModificationException} when someone else saved the person in between.
+     */
+    public void updatePerson(long personId,
+                             long expectedVersion,
+                             PersonEdit edit,
+                             RepositoryCallback<Boolean> callback) {
+        AppDatabase.getScheduler().write(DatabaseScheduler.PRIORITY_USER_BLOCKING, () -> {
             try {
-                person.updatedAt = System.currentTimeMillis();
-                database.personDao().update(person);
+                Person person = database.personDao().getById(personId);
+                if (person == null) {
+                    postSuccess(callback, false);
+                    return;
+                }
+                if (!writeEdit(person, expectedVersion, edit)) {
+                    throw new ConcurrentModificationException("Person " + personId + " changed");
+                }
                 postSuccess(callback, true);
             } catch (Throwable t) {
                 postError(callback, t);
@@ -62,7 +137,7 @@ public class PersonRepository {
     }
 
     public void getRootPerson(RepositoryCallback<Person> callback) {
-        AppDatabase.getDatabaseExecutor().execute(() -> {
+        AppDatabase.getScheduler().read(DatabaseScheduler.PRIORITY_USER_BLOCKING, () -> {
             try {
                 Person person = database.personDao().getRootPerson();
                 postSuccess(callback, person);
@@ -73,45 +148,79 @@ public class PersonRepository {
     }
 
     public void getPersonById(long personId, RepositoryCallback<Person> callback) {
-        AppDatabase.getDatabaseExecutor().execute(() -> {
+        readFromStore(callback, () -> graphStore.getPerson(personId),
+                dao -> dao.getById(personId));
+    }
+
+    /**
+     * The person with their spouse, parents and children, answered from the in-memory graph.
+     * Completes with null when the person does not exist.
+     */
+    public void getPersonDetails(long personId, RepositoryCallback<PersonDetails> callback) {
+        readFromStore(callback, () -> graphStore.getDetails(personId),
+                dao -> loadDetails(dao, personId));
+    }
+
+    public void getAllPeople(RepositoryCallback<List<Person>> callback) {
+        AppDatabase.getScheduler().read(DatabaseScheduler.PRIORITY_BULK, () -> {
             try {
-                Person person = database.personDao().getById(personId);
-                postSuccess(callback, person);
+                List<Person> people = database.personDao().getAll();
+                postSuccess(callback, people);
             } catch (Throwable t) {
                 postError(callback, t);
             }
         });
     }
 
-    public void getAllPeople(RepositoryCallback<List<Person>> callback) {
-        AppDatabase.getDatabaseExecutor().execute(() -> {
+    public void getTreeNeighbourhood(int maxUpLevels,
+                                     int maxDownLevels,
+                                     RepositoryCallback<FamilyNeighbourhood> callback) {
+        AppDatabase.getScheduler().read(DatabaseScheduler.PRIORITY_BACKGROUND, () -> {
             try {
-                List<Person> people = database.personDao().getAll();
-                postSuccess(callback, people);
+                Person root = database.personDao().getRootPerson();
+                if (root == null) {
+                    root = database.personDao().getFirstByName();
+                }
+                if (root == null) {
+                    postSuccess(callback, new FamilyNeighbourhood(null, new ArrayList<>()));
+                    return;
+                }
+                List<Person> people = database.personDao()
+                        .getTreeNeighbourhood(root.id, maxUpLevels, maxDownLevels);
+                for (Person person : people) {
+                    if (person.id == root.id) {
+                        root = person;
+                        break;
+                    }
+                }
+                postSuccess(callback, new FamilyNeighbourhood(root, people));
             } catch (Throwable t) {
                 postError(callback, t);
             }
         });
     }
 
-    public void getChildren(long personId, RepositoryCallback<List<Person>> callback) {
-        AppDatabase.getDatabaseExecutor().execute(() -> {
+    public void getPeopleByIds(long[] ids, RepositoryCallback<List<Person>> callback) {
+        AppDatabase.getScheduler().read(DatabaseScheduler.PRIORITY_BACKGROUND, () -> {
             try {
-                List<Person> children = database.personDao().getChildren(personId);
-                postSuccess(callback, children);
+                List<Person> people = database.personDao().getByIds(ids);
+                postSuccess(callback, people);
             } catch (Throwable t) {
                 postError(callback, t);
             }
         });
     }
 
+    public void getChildren(long personId, RepositoryCallback<List<Person>> callback) {
+        readFromStore(callback, () -> graphStore.getChildren(personId),
+                dao -> dao.getChildren(personId));
+    }
+
     public void deletePerson(long personId, RepositoryCallback<Boolean> callback) {
-        AppDatabase.getDatabaseExecutor().execute(() -> {
+        AppDatabase.getScheduler().write(DatabaseScheduler.PRIORITY_USER_BLOCKING, () -> {
             try {
-                database.personDao().clearMotherRef(personId);
-                database.personDao().clearFatherRef(personId);
-                database.personDao().clearSpouseRef(personId);
-                database.personDao().deleteById(personId);
+                long[] linkedIds = database.personDao().deleteAndUnlink(personId);
+                publishChange(PersonChange.deleted(personId, linkedIds));
                 postSuccess(callback, true);
             } catch (Throwable t) {
                 postError(callback, t);
@@ -123,22 +232,13 @@ public class PersonRepository {
                                    Person parent,
                                    boolean asMother,
                                    RepositoryCallback<Long> callback) {
-        AppDatabase.getDatabaseExecutor().execute(() -> {
+        AppDatabase.getScheduler().write(DatabaseScheduler.PRIORITY_USER_BLOCKING, () -> {
             try {
                 long now = System.currentTimeMillis();
                 parent.createdAt = now;
                 parent.updatedAt = now;
-                long parentId = database.personDao().insert(parent);
-                Person child = database.personDao().getById(childId);
-                if (child != null) {
-                    if (asMother) {
-                        child.motherId = parentId;
-                    } else {
-                        child.fatherId = parentId;
-                    }
-                    child.updatedAt = now;
-                    database.personDao().update(child);
-                }
+                long parentId = database.personDao().insertParent(childId, parent, asMother);
+                publishChange(PersonChange.insertedAndUpdated(parentId, childId));
                 postSuccess(callback, parentId);
             } catch (Throwable t) {
                 postError(callback, t);
@@ -150,25 +250,13 @@ public class PersonRepository {
                                   Person child,
                                   boolean parentIsMother,
                                   RepositoryCallback<Long> callback) {
-        AppDatabase.getDatabaseExecutor().execute(() -> {
+        AppDatabase.getScheduler().write(DatabaseScheduler.PRIORITY_USER_BLOCKING, () -> {
             try {
                 long now = System.currentTimeMillis();
                 child.createdAt = now;
                 child.updatedAt = now;
-                if (parentIsMother) {
-                    child.motherId = parentId;
-                } else {
-                    child.fatherId = parentId;
-                }
-                Person parent = database.personDao().getById(parentId);
-                if (parent != null && parent.spouseId != null && parent.spouseId != parentId) {
-                    if (parentIsMother) {
-                        child.fatherId = parent.spouseId;
-                    } else {
-                        child.motherId = parent.spouseId;
-                    }
-                }
-                long childId = database.personDao().insert(child);
+                long childId = database.personDao().insertChild(parentId, child, parentIsMother);
+                publishChange(PersonChange.inserted(childId));
                 postSuccess(callback, childId);
             } catch (Throwable t) {
                 postError(callback, t);
@@ -179,20 +267,13 @@ public class PersonRepository {
     public void addSpouseForPerson(long personId,
                                    Person spouse,
                                    RepositoryCallback<Long> callback) {
-        AppDatabase.getDatabaseExecutor().execute(() -> {
+        AppDatabase.getScheduler().write(DatabaseScheduler.PRIORITY_USER_BLOCKING, () -> {
             try {
                 long now = System.currentTimeMillis();
                 spouse.createdAt = now;
                 spouse.updatedAt = now;
-                spouse.spouseId = personId;
-                long spouseId = database.personDao().insert(spouse);
-
-                Person person = database.personDao().getById(personId);
-                if (person != null) {
-                    person.spouseId = spouseId;
-                    person.updatedAt = now;
-                    database.personDao().update(person);
-                }
+                long spouseId = database.personDao().insertSpouse(personId, spouse);
+                publishChange(PersonChange.insertedAndUpdated(spouseId, personId));
                 postSuccess(callback, spouseId);
             } catch (Throwable t) {
                 postError(callback, t);
@@ -200,6 +281,101 @@ public class PersonRepository {
         });
     }
 
+    /**
+     * Applies the mutations in order inside one transaction, so they cost a single commit and
+     * either all land or none do. The callback receives the combined change, with inserted ids in
+     * mutation order.
+     */
+    public void applyBatch(List<PersonMutation> mutations, RepositoryCallback<PersonChange> callback) {
+        AppDatabase.getScheduler().write(DatabaseScheduler.PRIORITY_BULK, () -> {
+            try {
+                PersonChange.Builder changes = new PersonChange.Builder();
+                long now = System.currentTimeMillis();
+                database.runInTransaction(() -> {
+                    for (PersonMutation mutation : mutations) {
+                        mutation.apply(database.personDao(), now, changes);
+                    }
+                });
+                PersonChange change = changes.build();
+                publishChange(change);
+                postSuccess(callback, change);
+            } catch (Throwable t) {
+                postError(callback, t);
+            }
+        });
+    }
+
+    /**
+     * Runs on the writer thread; false when the row is not at {@code expectedVersion}.
+     */
+    private boolean writeEdit(Person person, long expectedVersion, PersonEdit edit) {
+        edit.apply(person);
+        person.updatedAt = System.currentTimeMillis();
+        if (!database.personDao().updateIfVersion(person, expectedVersion)) {
+            return false;
+        }
+        publishChange(PersonChange.updated(person.id));
+        return true;
+    }
+
+    /**
+     * Answers from the graph store straight away once it is loaded. Until then the lookup runs as a
+     * point query on a reader thread, so it never waits behind the full load.
+     */
+    private <T> void readFromStore(RepositoryCallback<T> callback,
+                                   Supplier<T> storeQuery,
+                                   Function<PersonDao, T> daoQuery) {
+        if (graphStore.isLoaded()) {
+            postSuccess(callback, storeQuery.get());
+            return;
+        }
+        preloadGraphStore();
+        AppDatabase.getScheduler().read(DatabaseScheduler.PRIORITY_USER_BLOCKING, () -> {
+            try {
+                postSuccess(callback, daoQuery.apply(database.personDao()));
+            } catch (Throwable t) {
+                postError(callback, t);
+            }
+        });
+    }
+
+    /**
+     * Fills the graph store in the background; a failed load is retried by the next lookup.
+     */
+    private void preloadGraphStore() {
+        if (!graphStore.claimLoad()) {
+            return;
+        }
+        AppDatabase.getScheduler().read(DatabaseScheduler.PRIORITY_BULK, () -> {
+            try {
+                graphStore.ensureLoaded(database.personDao());
+            } catch (RuntimeException ignored) {
+                // Lookups keep falling back to point queries until a later load succeeds.
+            }
+        });
+    }
+
+    private static PersonDetails loadDetails(PersonDao dao, long personId) {
+        Person person = dao.getById(personId);
+        if (person == null) {
+            return null;
+        }
+        Person spouse = person.spouseId != null ? dao.getById(person.spouseId) : null;
+        return new PersonDetails(person, spouse, dao.getParents(personId), dao.getChildren(personId));
+    }
+
+    /**
+     * Runs on the writer thread right after the commit, so the graph store sees writes in order.
+     */
+    private void publishChange(PersonChange change) {
+        graphStore.apply(change, database.personDao());
+        mainHandler.post(() -> {
+            for (PersonChangeListener listener : changeListeners) {
+                listener.onPeopleChanged(change);
+            }
+        });
+    }
+
     private <T> void postSuccess(RepositoryCallback<T> callback, T result) {
         if (callback == null) {
             return;
@@ -9,24 +9,26 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
+import android.widget.Toast;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.ViewModelProvider;
 import com.abduqodir.qfamily.R;
 import com.abduqodir.qfamily.data.Person;
+import com.abduqodir.qfamily.image.AvatarLoader;
 import com.abduqodir.qfamily.ui.tree.TreeActivity;
 import com.abduqodir.qfamily.util.DatePickerDialogHelper;
 import com.abduqodir.qfamily.util.DateUtils;
-import com.abduqodir.qfamily.util.ImageStorage;
 import com.abduqodir.qfamily.util.InitialsUtils;
 import com.abduqodir.qfamily.util.Prefs;
 import com.abduqodir.qfamily.util.ValidationUtils;
 import com.abduqodir.qfamily.viewmodel.OnboardingViewModel;
+import com.abduqodir.qfamily.viewmodel.PhotoImportViewModel;
+import com.google.android.material.progressindicator.CircularProgressIndicator;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
 import java.time.LocalDate;
-import java.io.IOException;
 
 public class OnboardingActivity extends AppCompatActivity {
     private TextInputLayout layoutFirstName;
@@ -40,11 +42,13 @@ public class OnboardingActivity extends AppCompatActivity {
     private TextView textAge;
     private ImageView imageAvatar;
     private TextView textInitials;
+    private CircularProgressIndicator progressPhoto;
 
     private LocalDate selectedDate;
     private Uri selectedPhotoUri;
 
     private OnboardingViewModel viewModel;
+    private PhotoImportViewModel photoImportViewModel;
     private ActivityResultLauncher<String> photoPicker;
 
     @Override
@@ -60,6 +64,7 @@ public class OnboardingActivity extends AppCompatActivity {
         setContentView(R.layout.activity_onboarding);
 
         viewModel = new ViewModelProvider(this).get(OnboardingViewModel.class);
+        photoImportViewModel = new ViewModelProvider(this).get(PhotoImportViewModel.class);
 
         layoutFirstName = findViewById(R.id.layoutFirstName);
         layoutLastName = findViewById(R.id.layoutLastName);
@@ -72,24 +77,11 @@ public class OnboardingActivity extends AppCompatActivity {
         textAge = findViewById(R.id.textAge);
         imageAvatar = findViewById(R.id.imageAvatar);
         textInitials = findViewById(R.id.textInitials);
+        progressPhoto = findViewById(R.id.progressPhoto);
 
         photoPicker = registerForActivityResult(new ActivityResultContracts.GetContent(), uri -> {
             if (uri != null) {
-                try {
-                    String saved = ImageStorage.persistImage(this, uri);
-                    if (saved != null) {
-                        selectedPhotoUri = Uri.parse(saved);
-                    }
-                    Uri preview = selectedPhotoUri != null ? selectedPhotoUri : uri;
-                    imageAvatar.setImageURI(preview);
-                    imageAvatar.setVisibility(View.VISIBLE);
-                    textInitials.setVisibility(View.GONE);
-                } catch (IOException e) {
-                    selectedPhotoUri = null;
-                    imageAvatar.setImageURI(uri);
-                    imageAvatar.setVisibility(View.VISIBLE);
-                    textInitials.setVisibility(View.GONE);
-                }
+                photoImportViewModel.startImport(uri);
             }
         });
 
@@ -120,6 +112,7 @@ public class OnboardingActivity extends AppCompatActivity {
 
         Button buttonContinue = findViewById(R.id.buttonContinue);
         buttonContinue.setOnClickListener(v -> onContinue());
+        observePhotoImport(buttonContinue);
 
         viewModel.getSaveResult().observe(this, success -> {
             if (Boolean.TRUE.equals(success)) {
@@ -130,6 +123,51 @@ public class OnboardingActivity extends AppCompatActivity {
         });
     }
 
+    private void observePhotoImport(Button saveButton) {
+        photoImportViewModel.getPreview().observe(this, preview -> {
+            if (preview != null) {
+                AvatarLoader.getInstance(this).unbind(imageAvatar);
+                imageAvatar.setImageBitmap(preview);
+                imageAvatar.setVisibility(View.VISIBLE);
+                textInitials.setVisibility(View.GONE);
+            }
+        });
+        photoImportViewModel.getProgress().observe(this, percent -> {
+            if (percent != null) {
+                progressPhoto.setProgressCompat(percent, true);
+            }
+        });
+        photoImportViewModel.isImporting().observe(this, importing -> {
+            boolean active = Boolean.TRUE.equals(importing);
+            progressPhoto.setVisibility(active ? View.VISIBLE : View.GONE);
+            saveButton.setEnabled(!active);
+        });
+        photoImportViewModel.getImportedPhotoUri().observe(this, saved -> {
+            if (saved != null) {
+                selectedPhotoUri = Uri.parse(saved);
+                showPhoto(saved);
+            }
+        });
+        photoImportViewModel.getError().observe(this, event -> {
+            if (!event.handle()) {
+                return;
+            }
+            Toast.makeText(this, R.string.photo_import_failed, Toast.LENGTH_SHORT).show();
+            if (selectedPhotoUri != null) {
+                showPhoto(selectedPhotoUri.toString());
+            } else {
+                updateInitials();
+            }
+        });
+    }
+
+    private void showPhoto(String photoUri) {
+        int sizePx = getResources().getDimensionPixelSize(R.dimen.avatar_preview_size);
+        AvatarLoader.getInstance(this).bind(imageAvatar, photoUri, sizePx, null);
+        imageAvatar.setVisibility(View.VISIBLE);
+        textInitials.setVisibility(View.GONE);
+    }
+
     private void showDatePicker() {
         DatePickerDialogHelper.show(this, selectedDate, date -> {
             selectedDate = date;
@@ -148,7 +186,7 @@ public class OnboardingActivity extends AppCompatActivity {
     }
 
     private void updateInitials() {
-        if (selectedPhotoUri != null) {
+        if (selectedPhotoUri != null || Boolean.TRUE.equals(photoImportViewModel.isImporting().getValue())) {
             return;
         }
         String initials = InitialsUtils.buildInitials(
@@ -8,6 +8,7 @@ import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.RadioButton;
 import android.widget.TextView;
+import android.widget.Toast;
 import android.text.Editable;
 import android.text.TextWatcher;
 import androidx.activity.result.ActivityResultLauncher;
@@ -16,15 +17,16 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.ViewModelProvider;
 import com.abduqodir.qfamily.R;
 import com.abduqodir.qfamily.data.Person;
+import com.abduqodir.qfamily.image.AvatarLoader;
 import com.abduqodir.qfamily.util.DatePickerDialogHelper;
 import com.abduqodir.qfamily.util.DateUtils;
-import com.abduqodir.qfamily.util.ImageStorage;
 import com.abduqodir.qfamily.util.InitialsUtils;
 import com.abduqodir.qfamily.util.ValidationUtils;
 import com.abduqodir.qfamily.viewmodel.AddRelativeViewModel;
+import com.abduqodir.qfamily.viewmodel.PhotoImportViewModel;
+import com.google.android.material.progressindicator.CircularProgressIndicator;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
-import java.io.IOException;
 import java.time.LocalDate;
 
 public class AddRelativeActivity extends AppCompatActivity {
@@ -47,6 +49,7 @@ public class AddRelativeActivity extends AppCompatActivity {
     private TextView textAge;
     private ImageView imageAvatar;
     private TextView textInitials;
+    private CircularProgressIndicator progressPhoto;
     private RadioButton radioMother;
     private RadioButton radioFather;
     private TextView textRelationHint;
@@ -57,6 +60,7 @@ public class AddRelativeActivity extends AppCompatActivity {
     private long targetId;
 
     private AddRelativeViewModel viewModel;
+    private PhotoImportViewModel photoImportViewModel;
     private ActivityResultLauncher<String> photoPicker;
 
     @Override
@@ -72,6 +76,7 @@ public class AddRelativeActivity extends AppCompatActivity {
         }
 
         viewModel = new ViewModelProvider(this).get(AddRelativeViewModel.class);
+        photoImportViewModel = new ViewModelProvider(this).get(PhotoImportViewModel.class);
 
         textTitle = findViewById(R.id.textTitle);
         layoutFirstName = findViewById(R.id.layoutFirstName);
@@ -85,6 +90,7 @@ public class AddRelativeActivity extends AppCompatActivity {
         textAge = findViewById(R.id.textAge);
         imageAvatar = findViewById(R.id.imageAvatar);
         textInitials = findViewById(R.id.textInitials);
+        progressPhoto = findViewById(R.id.progressPhoto);
         radioMother = findViewById(R.id.radioMother);
         radioFather = findViewById(R.id.radioFather);
         textRelationHint = findViewById(R.id.textRelationHint);
@@ -93,21 +99,7 @@ public class AddRelativeActivity extends AppCompatActivity {
 
         photoPicker = registerForActivityResult(new ActivityResultContracts.GetContent(), uri -> {
             if (uri != null) {
-                try {
-                    String saved = ImageStorage.persistImage(this, uri);
-                    if (saved != null) {
-                        selectedPhotoUri = Uri.parse(saved);
-                    }
-                    Uri preview = selectedPhotoUri != null ? selectedPhotoUri : uri;
-                    imageAvatar.setImageURI(preview);
-                    imageAvatar.setVisibility(View.VISIBLE);
-                    textInitials.setVisibility(View.GONE);
-                } catch (IOException e) {
-                    selectedPhotoUri = null;
-                    imageAvatar.setImageURI(uri);
-                    imageAvatar.setVisibility(View.VISIBLE);
-                    textInitials.setVisibility(View.GONE);
-                }
+                photoImportViewModel.startImport(uri);
             }
         });
 
@@ -137,6 +129,7 @@ public class AddRelativeActivity extends AppCompatActivity {
 
         Button buttonSave = findViewById(R.id.buttonSave);
         buttonSave.setOnClickListener(v -> onSave());
+        observePhotoImport(buttonSave);
 
         viewModel.getSaveResult().observe(this, success -> {
             if (Boolean.TRUE.equals(success)) {
@@ -172,6 +165,51 @@ public class AddRelativeActivity extends AppCompatActivity {
         }
     }
 
+    private void observePhotoImport(Button saveButton) {
+        photoImportViewModel.getPreview().observe(this, preview -> {
+            if (preview != null) {
+                AvatarLoader.getInstance(this).unbind(imageAvatar);
+                imageAvatar.setImageBitmap(preview);
+                imageAvatar.setVisibility(View.VISIBLE);
+                textInitials.setVisibility(View.GONE);
+            }
+        });
+        photoImportViewModel.getProgress().observe(this, percent -> {
+            if (percent != null) {
+                progressPhoto.setProgressCompat(percent, true);
+            }
+        });
+        photoImportViewModel.isImporting().observe(this, importing -> {
+            boolean active = Boolean.TRUE.equals(importing);
+            progressPhoto.setVisibility(active ? View.VISIBLE : View.GONE);
+            saveButton.setEnabled(!active);
+        });
+        photoImportViewModel.getImportedPhotoUri().observe(this, saved -> {
+            if (saved != null) {
+                selectedPhotoUri = Uri.parse(saved);
+                showPhoto(saved);
+            }
+        });
+        photoImportViewModel.getError().observe(this, event -> {
+            if (!event.handle()) {
+                return;
+            }
+            Toast.makeText(this, R.string.photo_import_failed, Toast.LENGTH_SHORT).show();
+            if (selectedPhotoUri != null) {
+                showPhoto(selectedPhotoUri.toString());
+            } else {
+                updateInitials();
+            }
+        });
+    }
+
+    private void showPhoto(String photoUri) {
+        int sizePx = getResources().getDimensionPixelSize(R.dimen.avatar_preview_size);
+        AvatarLoader.getInstance(this).bind(imageAvatar, photoUri, sizePx, null);
+        imageAvatar.setVisibility(View.VISIBLE);
+        textInitials.setVisibility(View.GONE);
+    }
+
     private void showDatePicker() {
         DatePickerDialogHelper.show(this, selectedDate, date -> {
             selectedDate = date;
@@ -232,7 +270,7 @@ public class AddRelativeActivity extends AppCompatActivity {
     }
 
     private void updateInitials() {
-        if (selectedPhotoUri != null) {
+        if (selectedPhotoUri != null || Boolean.TRUE.equals(photoImportViewModel.isImporting().getValue())) {
             return;
         }
         String initials = InitialsUtils.buildInitials(
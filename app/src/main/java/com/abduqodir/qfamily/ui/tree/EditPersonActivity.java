@@ -8,21 +8,24 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
+import android.widget.Toast;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.ViewModelProvider;
 import com.abduqodir.qfamily.R;
 import com.abduqodir.qfamily.data.Person;
+import com.abduqodir.qfamily.image.AvatarLoader;
 import com.abduqodir.qfamily.util.DatePickerDialogHelper;
 import com.abduqodir.qfamily.util.DateUtils;
-import com.abduqodir.qfamily.util.ImageStorage;
 import com.abduqodir.qfamily.util.InitialsUtils;
 import com.abduqodir.qfamily.util.ValidationUtils;
 import com.abduqodir.qfamily.viewmodel.EditPersonViewModel;
+import com.abduqodir.qfamily.viewmodel.PhotoImportViewModel;
+import com.google.android.material.dialog.MaterialAlertDialogBuilder;
+import com.google.android.material.progressindicator.CircularProgressIndicator;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
-import java.io.IOException;
 import java.time.LocalDate;
 
 public class EditPersonActivity extends AppCompatActivity {
@@ -39,12 +42,14 @@ public class EditPersonActivity extends AppCompatActivity {
     private TextView textAge;
     private ImageView imageAvatar;
     private TextView textInitials;
+    private CircularProgressIndicator progressPhoto;
 
     private LocalDate selectedDate;
     private Uri selectedPhotoUri;
     private Person currentPerson;
 
     private EditPersonViewModel viewModel;
+    private PhotoImportViewModel photoImportViewModel;
     private ActivityResultLauncher<String> photoPicker;
 
     @Override
@@ -59,6 +64,7 @@ public class EditPersonActivity extends AppCompatActivity {
         }
 
         viewModel = new ViewModelProvider(this).get(EditPersonViewModel.class);
+        photoImportViewModel = new ViewModelProvider(this).get(PhotoImportViewModel.class);
 
         layoutFirstName = findViewById(R.id.layoutFirstName);
         layoutLastName = findViewById(R.id.layoutLastName);
@@ -71,24 +77,11 @@ public class EditPersonActivity extends AppCompatActivity {
         textAge = findViewById(R.id.textAge);
         imageAvatar = findViewById(R.id.imageAvatar);
         textInitials = findViewById(R.id.textInitials);
+        progressPhoto = findViewById(R.id.progressPhoto);
 
         photoPicker = registerForActivityResult(new ActivityResultContracts.GetContent(), uri -> {
             if (uri != null) {
-                try {
-                    String saved = ImageStorage.persistImage(this, uri);
-                    if (saved != null) {
-                        selectedPhotoUri = Uri.parse(saved);
-                    }
-                    Uri preview = selectedPhotoUri != null ? selectedPhotoUri : uri;
-                    imageAvatar.setImageURI(preview);
-                    imageAvatar.setVisibility(View.VISIBLE);
-                    textInitials.setVisibility(View.GONE);
-                } catch (IOException e) {
-                    selectedPhotoUri = null;
-                    imageAvatar.setImageURI(uri);
-                    imageAvatar.setVisibility(View.VISIBLE);
-                    textInitials.setVisibility(View.GONE);
-                }
+                photoImportViewModel.startImport(uri);
             }
         });
 
@@ -109,7 +102,7 @@ public class EditPersonActivity extends AppCompatActivity {
 
             @Override
             public void afterTextChanged(Editable s) {
-                if (selectedPhotoUri == null) {
+                if (selectedPhotoUri == null && !Boolean.TRUE.equals(photoImportViewModel.isImporting().getValue())) {
                     updateInitials();
                 }
             }
@@ -120,6 +113,7 @@ public class EditPersonActivity extends AppCompatActivity {
 
         Button buttonSave = findViewById(R.id.buttonSave);
         buttonSave.setOnClickListener(v -> onSave());
+        observePhotoImport(buttonSave);
 
         viewModel.getPerson().observe(this, this::bindPerson);
         viewModel.getSaveResult().observe(this, success -> {
@@ -128,6 +122,11 @@ public class EditPersonActivity extends AppCompatActivity {
                 finish();
             }
         });
+        viewModel.getSaveConflict().observe(this, event -> {
+            if (event.handle()) {
+                showSaveConflict(event.getContent());
+            }
+        });
 
         viewModel.loadPerson(personId);
     }
@@ -148,12 +147,15 @@ public class EditPersonActivity extends AppCompatActivity {
         }
         updateAge();
 
+        boolean photoPicked = photoImportViewModel.getImportedPhotoUri().getValue() != null
+                || Boolean.TRUE.equals(photoImportViewModel.isImporting().getValue());
+        if (photoPicked) {
+            return;
+        }
         if (person.photoUri != null && !person.photoUri.trim().isEmpty()) {
             try {
                 selectedPhotoUri = Uri.parse(person.photoUri);
-                imageAvatar.setImageURI(selectedPhotoUri);
-                imageAvatar.setVisibility(View.VISIBLE);
-                textInitials.setVisibility(View.GONE);
+                showPhoto(person.photoUri);
             } catch (RuntimeException e) {
                 selectedPhotoUri = null;
                 updateInitials();
@@ -163,6 +165,66 @@ public class EditPersonActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Someone else saved the person after this screen loaded it. The form still holds the user's
+     * edits: they can be saved over the stored version, or dropped for it.
+     */
+    private void showSaveConflict(Person stored) {
+        new MaterialAlertDialogBuilder(this)
+                .setMessage(R.string.error_person_changed)
+                .setPositiveButton(R.string.person_changed_overwrite, (dialog, which) -> {
+                    currentPerson = stored;
+                    onSave();
+                })
+                .setNegativeButton(R.string.person_changed_reload, (dialog, which) -> bindPerson(stored))
+                .show();
+    }
+
+    private void observePhotoImport(Button saveButton) {
+        photoImportViewModel.getPreview().observe(this, preview -> {
+            if (preview != null) {
+                AvatarLoader.getInstance(this).unbind(imageAvatar);
+                imageAvatar.setImageBitmap(preview);
+                imageAvatar.setVisibility(View.VISIBLE);
+                textInitials.setVisibility(View.GONE);
+            }
+        });
+        photoImportViewModel.getProgress().observe(this, percent -> {
+            if (percent != null) {
+                progressPhoto.setProgressCompat(percent, true);
+            }
+        });
+        photoImportViewModel.isImporting().observe(this, importing -> {
+            boolean active = Boolean.TRUE.equals(importing);
+            progressPhoto.setVisibility(active ? View.VISIBLE : View.GONE);
+            saveButton.setEnabled(!active);
+        });
+        photoImportViewModel.getImportedPhotoUri().observe(this, saved -> {
+            if (saved != null) {
+                selectedPhotoUri = Uri.parse(saved);
+                showPhoto(saved);
+            }
+        });
+        photoImportViewModel.getError().observe(this, event -> {
+            if (!event.handle()) {
+                return;
+            }
+            Toast.makeText(this, R.string.photo_import_failed, Toast.LENGTH_SHORT).show();
+            if (selectedPhotoUri != null) {
+                showPhoto(selectedPhotoUri.toString());
+            } else {
+                updateInitials();
+            }
+        });
+    }
+
+    private void showPhoto(String photoUri) {
+        int sizePx = getResources().getDimensionPixelSize(R.dimen.avatar_preview_size);
+        AvatarLoader.getInstance(this).bind(imageAvatar, photoUri, sizePx, null);
+        imageAvatar.setVisibility(View.VISIBLE);
+        textInitials.setVisibility(View.GONE);
+    }
+
     private void showDatePicker() {
         DatePickerDialogHelper.show(this, selectedDate, date -> {
             selectedDate = date;
@@ -224,13 +286,15 @@ public class EditPersonActivity extends AppCompatActivity {
             return;
         }
 
-        currentPerson.firstName = firstName;
-        currentPerson.lastName = lastName;
-        currentPerson.middleName = middleName;
-        currentPerson.birthDate = DateUtils.toEpochMillis(selectedDate);
-        currentPerson.photoUri = selectedPhotoUri != null ? selectedPhotoUri.toString() : null;
-
-        viewModel.updatePerson(currentPerson);
+        long birthDate = DateUtils.toEpochMillis(selectedDate);
+        String photoUri = selectedPhotoUri != null ? selectedPhotoUri.toString() : null;
+        viewModel.updatePerson(currentPerson.id, currentPerson.version, person -> {
+            person.firstName = firstName;
+            person.lastName = lastName;
+            person.middleName = middleName;
+            person.birthDate = birthDate;
+            person.photoUri = photoUri;
+        });
     }
 
     private void clearErrors() {
@@ -4,10 +4,9 @@ import android.animation.ValueAnimator;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Shader;
-import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
@@ -17,20 +16,17 @@ import android.view.ViewConfiguration;
 import androidx.annotation.Nullable;
 import com.abduqodir.qfamily.R;
 import com.abduqodir.qfamily.data.Person;
+import com.abduqodir.qfamily.image.AvatarLoader;
 import com.abduqodir.qfamily.ui.tree.model.TreeData;
-import com.abduqodir.qfamily.ui.tree.model.TreeEdge;
-import com.abduqodir.qfamily.ui.tree.model.TreeNode;
-import java.io.InputStream;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
+import com.abduqodir.qfamily.ui.tree.model.TreeGraph;
+import com.abduqodir.qfamily.ui.tree.render.LayerCache;
+import com.abduqodir.qfamily.ui.tree.render.SpatialGrid;
+import com.abduqodir.qfamily.ui.tree.render.TileRenderer;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import android.util.LruCache;
 
 public class FamilyTreeView extends View {
     public interface OnNodeInteractionListener {
@@ -39,11 +35,25 @@ public class FamilyTreeView extends View {
         void onAddRelativeRequested(Person person);
     }
 
-    private static final float MIN_SCALE = 0.6f;
+    private static final float MIN_SCALE = 0.1f;
     private static final float MAX_SCALE = 2.5f;
     private static final long ANIM_DURATION_MS = 180L;
     private static final int DIM_ALPHA = 110;
     private static final float FOCUS_SCALE = 1.04f;
+    private static final float HIT_RADIUS_FACTOR = 1.2f;
+    private static final float AVATAR_CANCEL_MARGIN = 1f;
+    private static final float PREFETCH_WINDOW_MS = 300f;
+    private static final float PREFETCH_MIN_VELOCITY = 0.3f;
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+    private static final float[] AVATAR_TIER_SCALES = {0.7f, 1f, 1.6f, 2.5f};
+    private static final int LOD_DOTS = 0;
+    private static final int LOD_INITIALS = 1;
+    private static final int LOD_FULL = 2;
+    private static final float LAYER_OVERSCAN = 0.5f;
+    private static final int SEGMENT_CHILD = 1;
+    private static final int SEGMENT_COUPLE = 2;
+    private static final int SEGMENT_SPOUSE = 3;
+    private static final int TILE_CACHE_FRACTION = 16;
 
     private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
     private final Paint nodePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
@@ -52,16 +62,38 @@ public class FamilyTreeView extends View {
     private final Paint namePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
     private final Paint plusPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
     private final Paint plusStrokePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-    private final Paint photoPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint photoPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+    private final Paint dotPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF avatarRect = new RectF();
 
     private TreeData treeData;
-    private final Map<Long, TreeNode> nodeMap = new HashMap<>();
     private OnNodeInteractionListener listener;
-    private final List<LineSegment> edgeSegments = new ArrayList<>();
-    private final Set<Long> focusNodeIds = new HashSet<>();
-    private final Set<Long> focusChildEdgeIds = new HashSet<>();
-    private final Set<String> focusSpouseEdgeKeys = new HashSet<>();
-    private final Map<String, List<Long>> coupleChildrenByKey = new HashMap<>();
+    private float[] segmentLines = new float[0];
+    private int[] segmentTypes = new int[0];
+    private int[] segmentOwners = new int[0];
+    private int segmentCount;
+    private boolean focusActive;
+    private boolean[] focusNodes = new boolean[0];
+    private boolean[] focusVisited = new boolean[0];
+    private int[] focusQueue = new int[0];
+    private final SpatialGrid nodeGrid;
+    private final SpatialGrid edgeGrid;
+    private boolean[] segmentFocused = new boolean[0];
+    private final LayerCache staticLayer = new LayerCache();
+    private int layerLevelOfDetail = -1;
+    private int layerAvatarTier = -1;
+    private boolean tiledRendering;
+    private TileRenderer tileRenderer;
+    private TreeSnapshot tileSnapshot;
+    private boolean tileSnapshotDirty;
+    // Set when avatars arrive between frames; the next onDraw re-records the static content once.
+    private boolean avatarsArrived;
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF tileRect = new RectF();
+    private final Rect tileSource = new Rect();
+    private final float cellSize;
+    private float[] focusedEdgeLines = new float[0];
+    private float[] dimmedEdgeLines = new float[0];
 
     private float translateX;
     private float translateY;
@@ -69,7 +101,13 @@ public class FamilyTreeView extends View {
     private float baseRadius;
     private float plusRadius;
     private float nameTextHeight;
-    private int bitmapSizePx;
+    private final float lodDotRadius;
+    private final float lodInitialsRadius;
+    private int levelOfDetail = LOD_FULL;
+    private float[] focusDots = new float[0];
+    private float[] dimDots = new float[0];
+    private final int[] avatarTierSizes = new int[AVATAR_TIER_SCALES.length];
+    private int avatarTier = 1;
     private float selectedScale = 1f;
     private ValueAnimator selectionAnimator;
     private long selectedId = -1L;
@@ -83,9 +121,22 @@ public class FamilyTreeView extends View {
     private final ScaleGestureDetector scaleDetector;
     private final GestureDetector gestureDetector;
 
-    private final LruCache<String, Bitmap> bitmapCache;
-    private final Set<String> loadingUris = new HashSet<>();
-    private final ExecutorService bitmapExecutor = Executors.newFixedThreadPool(2);
+    private final AvatarLoader avatarLoader;
+    private final Map<String, Integer> pendingAvatars = new HashMap<>();
+    private final AvatarLoader.Listener avatarListener = (photoUri, sizePx, bitmap) -> {
+        if (sizePx == avatarTierSizes[avatarTier]) {
+            pendingAvatars.remove(photoUri);
+        }
+        if (bitmap != null) {
+            avatarsArrived = true;
+            invalidate();
+        }
+    };
+    private float panVelocityX;
+    private float panVelocityY;
+    private long lastMoveTime;
+    private float viewportCenterX;
+    private float viewportCenterY;
 
     public FamilyTreeView(Context context) {
         this(context, null);
@@ -99,7 +150,12 @@ public class FamilyTreeView extends View {
         super(context, attrs, defStyleAttr);
         baseRadius = getResources().getDimension(R.dimen.tree_node_radius);
         plusRadius = getResources().getDimension(R.dimen.tree_plus_radius);
+        lodDotRadius = getResources().getDimension(R.dimen.tree_lod_dot_radius);
+        lodInitialsRadius = getResources().getDimension(R.dimen.tree_lod_initials_radius);
         touchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+        cellSize = getResources().getDimension(R.dimen.tree_spacing_x);
+        nodeGrid = new SpatialGrid(cellSize);
+        edgeGrid = new SpatialGrid(cellSize);
 
         linePaint.setColor(getResources().getColor(R.color.tree_line_color, null));
         linePaint.setStrokeWidth(getResources().getDimension(R.dimen.tree_line_width));
@@ -107,6 +163,10 @@ public class FamilyTreeView extends View {
         nodePaint.setColor(getResources().getColor(R.color.tree_node_color, null));
         nodePaint.setStyle(Paint.Style.FILL);
 
+        dotPaint.setColor(nodePaint.getColor());
+        dotPaint.setStrokeWidth(baseRadius * 2f);
+        dotPaint.setStrokeCap(Paint.Cap.ROUND);
+
         haloPaint.setColor(getResources().getColor(R.color.tree_halo_color, null));
         haloPaint.setStyle(Paint.Style.STROKE);
         haloPaint.setStrokeWidth(getResources().getDimension(R.dimen.tree_halo_width));
@@ -121,15 +181,10 @@ public class FamilyTreeView extends View {
         Paint.FontMetrics nameMetrics = namePaint.getFontMetrics();
         nameTextHeight = nameMetrics.descent - nameMetrics.ascent;
 
-        bitmapSizePx = Math.max(1, Math.round(baseRadius * 2f));
-        int maxMemoryKb = (int) (Runtime.getRuntime().maxMemory() / 1024);
-        int cacheSizeKb = maxMemoryKb / 16;
-        bitmapCache = new LruCache<String, Bitmap>(cacheSizeKb) {
-            @Override
-            protected int sizeOf(String key, Bitmap value) {
-                return value.getByteCount() / 1024;
-            }
-        };
+        for (int i = 0; i < AVATAR_TIER_SCALES.length; i++) {
+            avatarTierSizes[i] = Math.max(1, Math.round(baseRadius * 2f * AVATAR_TIER_SCALES[i]));
+        }
+        avatarLoader = AvatarLoader.getInstance(context);
 
         plusPaint.setColor(getResources().getColor(R.color.tree_plus_color, null));
         plusPaint.setStyle(Paint.Style.FILL);
@@ -147,19 +202,93 @@ public class FamilyTreeView extends View {
         this.listener = listener;
     }
 
+    /**
+     * Switches between vector drawing and a cache of raster tiles rendered off the main thread.
+     * The tile renderer only lives while the view is attached. Tiles need software avatars, so
+     * hardware bitmaps are turned off while it does.
+     */
+    public void setTiledRenderingEnabled(boolean enabled) {
+        if (enabled == tiledRendering) {
+            return;
+        }
+        tiledRendering = enabled;
+        if (!enabled) {
+            stopTileRenderer();
+        } else if (isAttachedToWindow()) {
+            startTileRenderer();
+        }
+        invalidate();
+    }
+
+    private void startTileRenderer() {
+        if (tileRenderer != null) {
+            return;
+        }
+        avatarLoader.setHardwareBitmapsEnabled(false);
+        long maxBytes = Runtime.getRuntime().maxMemory() / TILE_CACHE_FRACTION;
+        tileRenderer = new TileRenderer(maxBytes, this::invalidate);
+        tileSnapshot = null;
+        tileSnapshotDirty = true;
+    }
+
+    private void stopTileRenderer() {
+        if (tileRenderer == null) {
+            return;
+        }
+        tileRenderer.release();
+        tileRenderer = null;
+        tileSnapshot = null;
+        avatarLoader.setHardwareBitmapsEnabled(true);
+    }
+
+    private void onStaticContentChanged() {
+        staticLayer.invalidate();
+        tileSnapshotDirty = true;
+    }
+
+    /**
+     * Applies new tree data as a diff against the current one: when the structure is unchanged the
+     * focus set is kept, and when positions are unchanged too the spatial index, edge segments and
+     * pending avatar requests are kept as well. Changed nodes are redrawn through the static layer.
+     */
     public void setTreeData(TreeData treeData) {
+        TreeData previous = this.treeData;
         this.treeData = treeData;
-        nodeMap.clear();
-        if (treeData != null && treeData.nodes != null) {
-            for (TreeNode node : treeData.nodes) {
-                nodeMap.put(node.person.id, node);
-            }
+        boolean sameStructure = treeData != null && treeData.hasSameStructure(previous);
+        boolean samePositions = sameStructure && treeData.hasSamePositions(previous);
+        if (!samePositions) {
+            avatarLoader.cancel(avatarListener);
+            pendingAvatars.clear();
+            rebuildEdgeSegments();
+            rebuildEdgeGrid();
+            rebuildSpatialIndex();
         }
-        rebuildEdgeSegments();
-        rebuildFocusSet();
+        if (!sameStructure) {
+            rebuildFocusSet();
+        }
+        if (!samePositions) {
+            rebuildEdgeFocus();
+        }
+        onStaticContentChanged();
         invalidate();
     }
 
+    private void rebuildSpatialIndex() {
+        int nodeCount = treeData != null ? treeData.size() : 0;
+        float[] minX = new float[nodeCount];
+        float[] minY = new float[nodeCount];
+        float[] maxX = new float[nodeCount];
+        float[] maxY = new float[nodeCount];
+        float extent = baseRadius * 1.5f;
+        for (int i = 0; i < nodeCount; i++) {
+            minX[i] = treeData.x(i) - extent;
+            minY[i] = treeData.y(i) - extent;
+            maxX[i] = treeData.x(i) + extent;
+            maxY[i] = treeData.y(i) + extent;
+        }
+        nodeGrid.build(nodeCount, minX, minY, maxX, maxY);
+    }
+
     public void setViewportState(float translateX, float translateY, float scaleFactor) {
         this.translateX = translateX;
         this.translateY = translateY;
@@ -185,6 +314,8 @@ public class FamilyTreeView extends View {
         }
         selectedId = personId;
         rebuildFocusSet();
+        rebuildEdgeFocus();
+        onStaticContentChanged();
         animateSelection();
         invalidate();
     }
@@ -192,7 +323,7 @@ public class FamilyTreeView extends View {
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        if (treeData == null || treeData.nodes == null) {
+        if (treeData == null) {
             return;
         }
 
@@ -203,173 +334,406 @@ public class FamilyTreeView extends View {
         canvas.translate(centerX + translateX, centerY + translateY);
         canvas.scale(scaleFactor, scaleFactor);
 
-        drawEdges(canvas);
-        drawNodes(canvas);
+        float margin = baseRadius * 2f;
+        float left = toWorldX(0f) - margin;
+        float top = toWorldY(0f) - margin;
+        float right = toWorldX(getWidth()) + margin;
+        float bottom = toWorldY(getHeight()) + margin;
+        viewportCenterX = (left + right) / 2f;
+        viewportCenterY = (top + bottom) / 2f;
+        levelOfDetail = levelOfDetail();
+        updateAvatarTier();
+        if (avatarsArrived) {
+            avatarsArrived = false;
+            onStaticContentChanged();
+        }
+        if (tileRenderer != null) {
+            drawTiles(canvas, left, top, right, bottom);
+        } else if (canvas.isHardwareAccelerated()) {
+            drawStaticLayer(canvas, left, top, right, bottom);
+        } else {
+            drawEdges(canvas, left, top, right, bottom);
+            drawNodes(canvas, left, top, right, bottom);
+        }
+        drawSelectionOverlay(canvas);
 
         canvas.restore();
+        updateAvatarRequests(left, top, right, bottom);
     }
 
-    private void drawEdges(Canvas canvas) {
-        if (edgeSegments.isEmpty()) {
-            return;
+    /**
+     * Blits cached tiles at the zoom level nearest the current scale. A missing tile is queued and
+     * its parent tile, if cached, is stretched over the gap meanwhile.
+     */
+    private void drawTiles(Canvas canvas, float left, float top, float right, float bottom) {
+        if (tileSnapshotDirty) {
+            rebuildTileSnapshot();
         }
-        boolean focusActive = selectedId != -1L && !focusNodeIds.isEmpty();
-        int originalAlpha = linePaint.getAlpha();
-        for (LineSegment segment : edgeSegments) {
-            if (focusActive) {
-                if (segment.type == LineSegment.TYPE_PARENT) {
-                    if (segment.pairKey != null) {
-                        linePaint.setAlpha(isPairInFocus(segment.pairKey) ? 255 : DIM_ALPHA);
-                    } else {
-                        linePaint.setAlpha(focusChildEdgeIds.contains(segment.childId) ? 255 : DIM_ALPHA);
-                    }
-                } else {
-                    linePaint.setAlpha(focusSpouseEdgeKeys.contains(segment.edgeKey) ? 255 : DIM_ALPHA);
+        int zoom = TileRenderer.zoomLevelFor(scaleFactor);
+        float size = TileRenderer.tileWorldSize(zoom);
+        int firstColumn = (int) Math.floor(left / size);
+        int lastColumn = (int) Math.floor(right / size);
+        int firstRow = (int) Math.floor(top / size);
+        int lastRow = (int) Math.floor(bottom / size);
+        int half = TileRenderer.TILE_SIZE_PX / 2;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                tileRect.set(column * size, row * size, (column + 1) * size, (row + 1) * size);
+                Bitmap tile = tileRenderer.getTile(zoom, column, row);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, null, tileRect, tilePaint);
+                    continue;
+                }
+                tileRenderer.requestTile(zoom, column, row);
+                Bitmap parent = tileRenderer.getTile(zoom - 1, Math.floorDiv(column, 2), Math.floorDiv(row, 2));
+                if (parent != null) {
+                    int sourceLeft = Math.floorMod(column, 2) * half;
+                    int sourceTop = Math.floorMod(row, 2) * half;
+                    tileSource.set(sourceLeft, sourceTop, sourceLeft + half, sourceTop + half);
+                    canvas.drawBitmap(parent, tileSource, tileRect, tilePaint);
                 }
-            } else if (originalAlpha != 255) {
-                linePaint.setAlpha(255);
             }
-            canvas.drawLine(segment.x1, segment.y1, segment.x2, segment.y2, linePaint);
         }
-        linePaint.setAlpha(originalAlpha);
-    }
-
-    private void rebuildEdgeSegments() {
-        edgeSegments.clear();
-        coupleChildrenByKey.clear();
-        if (treeData == null || treeData.edges == null || treeData.edges.isEmpty()) {
-            return;
+        if (levelOfDetail == LOD_FULL) {
+            requestVisibleAvatars(left, top, right, bottom);
         }
-        Map<Long, List<TreeNode>> parentsByChild = new HashMap<>();
-        Set<String> spousePairs = new HashSet<>();
-        Map<String, ParentPair> pairMap = new HashMap<>();
+    }
 
-        for (TreeEdge edge : treeData.edges) {
-            TreeNode from = nodeMap.get(edge.fromId);
-            TreeNode to = nodeMap.get(edge.toId);
-            if (from == null || to == null) {
+    /**
+     * Tiles never call {@link #getOrLoadBitmap}, so visible avatars are requested here; cached
+     * hardware avatars are decoded again as software bitmaps.
+     */
+    private void requestVisibleAvatars(float left, float top, float right, float bottom) {
+        int sizePx = avatarTierSizes[avatarTier];
+        int visible = nodeGrid.query(left, top, right, bottom);
+        for (int i = 0; i < visible; i++) {
+            int index = nodeGrid.resultAt(i);
+            if (!treeData.hasPhoto(index)) {
                 continue;
             }
-            if (from.level == to.level) {
-                String key = edgeKey(from.person.id, to.person.id);
-                spousePairs.add(key);
+            String photoUri = treeData.photoUri(index);
+            if (pendingAvatars.containsKey(photoUri)
+                    || TreeSnapshot.softwareOnly(avatarLoader.getCached(photoUri, sizePx)) != null) {
                 continue;
             }
-            TreeNode parent = from.level < to.level ? from : to;
-            TreeNode child = from.level < to.level ? to : from;
-            parentsByChild
-                    .computeIfAbsent(child.person.id, id -> new ArrayList<>())
-                    .add(parent);
+            pendingAvatars.put(photoUri, index);
+            avatarLoader.load(photoUri, sizePx, avatarListener, avatarPriority(index));
         }
+    }
 
-        for (Map.Entry<Long, List<TreeNode>> entry : parentsByChild.entrySet()) {
-            TreeNode child = nodeMap.get(entry.getKey());
-            if (child == null) {
+    /**
+     * Captures the current tree for the tile thread and drops only the tiles whose content changed.
+     */
+    private void rebuildTileSnapshot() {
+        tileSnapshotDirty = false;
+        int selected = selectedId != -1L ? treeData.indexOf(selectedId) : -1;
+        int count = treeData.size() - (selected >= 0 ? 1 : 0);
+        long[] ids = new long[count];
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        String[] initials = new String[count];
+        boolean[] dimmed = new boolean[count];
+        Bitmap[] avatars = new Bitmap[count];
+        String placeholder = getResources().getString(R.string.initials_placeholder);
+        int i = 0;
+        for (int index = 0; index < treeData.size(); index++) {
+            if (index == selected) {
                 continue;
             }
-            List<TreeNode> parents = entry.getValue();
-            if (parents == null || parents.isEmpty()) {
+            ids[i] = treeData.id(index);
+            xs[i] = treeData.x(index);
+            ys[i] = treeData.y(index);
+            initials[i] = treeData.initials(index).isEmpty() ? placeholder : treeData.initials(index);
+            dimmed[i] = focusActive && !focusNodes[index];
+            if (treeData.hasPhoto(index)) {
+                String photoUri = treeData.photoUri(index);
+                for (int tier = avatarTierSizes.length - 1; tier >= 0 && avatars[i] == null; tier--) {
+                    avatars[i] = TreeSnapshot.softwareOnly(avatarLoader.getCached(photoUri, avatarTierSizes[tier]));
+                }
+            }
+            i++;
+        }
+        TreeSnapshot snapshot = new TreeSnapshot(ids, xs, ys, initials, dimmed, avatars,
+                packSegments(true), packSegments(false),
+                baseRadius, lodDotRadius, lodInitialsRadius, DIM_ALPHA, linePaint, nodePaint, initialsPaint,
+                cellSize);
+        List<RectF> dirty = snapshot.dirtyRegions(tileSnapshot);
+        tileRenderer.setPainter(snapshot);
+        if (dirty == null) {
+            tileRenderer.invalidateAll();
+        } else {
+            for (RectF region : dirty) {
+                tileRenderer.invalidateRegion(region.left, region.top, region.right, region.bottom);
+            }
+        }
+        tileSnapshot = snapshot;
+    }
+
+    /**
+     * Replays the recorded edges and unselected nodes, re-recording them only when the content
+     * changed, the detail level or avatar tier moved, or the viewport left the recorded area. The
+     * recorded area overscans the viewport so short pans and zooms never re-record.
+     */
+    private void drawStaticLayer(Canvas canvas, float left, float top, float right, float bottom) {
+        if (!staticLayer.covers(left, top, right, bottom)
+                || layerLevelOfDetail != levelOfDetail || layerAvatarTier != avatarTier) {
+            float overscanX = (right - left) * LAYER_OVERSCAN;
+            float overscanY = (bottom - top) * LAYER_OVERSCAN;
+            float layerLeft = left - overscanX;
+            float layerTop = top - overscanY;
+            float layerRight = right + overscanX;
+            float layerBottom = bottom + overscanY;
+            staticLayer.record(layerLeft, layerTop, layerRight, layerBottom, layerCanvas -> {
+                drawEdges(layerCanvas, layerLeft, layerTop, layerRight, layerBottom);
+                drawNodes(layerCanvas, layerLeft, layerTop, layerRight, layerBottom);
+            });
+            layerLevelOfDetail = levelOfDetail;
+            layerAvatarTier = avatarTier;
+        }
+        staticLayer.draw(canvas);
+    }
+
+    /**
+     * Chooses how much of each node to draw from its on-screen radius: plain dots, circles with
+     * initials, or the full node with avatar. Text and bitmaps dominate the frame when zoomed out.
+     */
+    private int levelOfDetail() {
+        float screenRadius = baseRadius * scaleFactor;
+        if (screenRadius < lodDotRadius) {
+            return LOD_DOTS;
+        }
+        return screenRadius < lodInitialsRadius ? LOD_INITIALS : LOD_FULL;
+    }
+
+    /**
+     * Picks the smallest avatar tier that still covers the current zoom. Requests for the previous
+     * tier are dropped; nodes keep showing whatever tier is cached until the new one arrives.
+     */
+    private void updateAvatarTier() {
+        if (levelOfDetail != LOD_FULL) {
+            if (!pendingAvatars.isEmpty()) {
+                avatarLoader.cancel(avatarListener);
+                pendingAvatars.clear();
+            }
+            return;
+        }
+        int tier = AVATAR_TIER_SCALES.length - 1;
+        for (int i = 0; i < AVATAR_TIER_SCALES.length; i++) {
+            if (AVATAR_TIER_SCALES[i] >= scaleFactor) {
+                tier = i;
+                break;
+            }
+        }
+        if (tier != avatarTier) {
+            avatarLoader.cancel(avatarListener);
+            pendingAvatars.clear();
+            avatarTier = tier;
+        }
+    }
+
+    /**
+     * Re-ranks outstanding avatar decodes by distance from the viewport centre after each frame,
+     * drops the ones that have drifted well outside the viewport and, while panning, queues the
+     * avatars the viewport is heading towards.
+     */
+    private void updateAvatarRequests(float left, float top, float right, float bottom) {
+        if (levelOfDetail != LOD_FULL) {
+            return;
+        }
+        int sizePx = avatarTierSizes[avatarTier];
+        float marginX = (right - left) * AVATAR_CANCEL_MARGIN;
+        float marginY = (bottom - top) * AVATAR_CANCEL_MARGIN;
+        Iterator<Map.Entry<String, Integer>> iterator = pendingAvatars.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Integer> entry = iterator.next();
+            int index = entry.getValue();
+            float x = treeData.x(index);
+            float y = treeData.y(index);
+            if (x < left - marginX || x > right + marginX || y < top - marginY || y > bottom + marginY) {
+                avatarLoader.cancel(entry.getKey(), sizePx, avatarListener);
+                iterator.remove();
+            } else {
+                avatarLoader.load(entry.getKey(), sizePx, avatarListener, avatarPriority(index));
+            }
+        }
+
+        if (!isDragging || Math.hypot(panVelocityX, panVelocityY) < PREFETCH_MIN_VELOCITY) {
+            return;
+        }
+        float shiftX = -panVelocityX * PREFETCH_WINDOW_MS / scaleFactor;
+        float shiftY = -panVelocityY * PREFETCH_WINDOW_MS / scaleFactor;
+        int ahead = nodeGrid.query(left + shiftX, top + shiftY, right + shiftX, bottom + shiftY);
+        for (int i = 0; i < ahead; i++) {
+            int index = nodeGrid.resultAt(i);
+            if (!treeData.hasPhoto(index)) {
                 continue;
             }
-            TreeNode parentA = parents.get(0);
-            TreeNode parentB = null;
-            for (int i = 1; i < parents.size(); i++) {
-                if (parents.get(i).person.id != parentA.person.id) {
-                    parentB = parents.get(i);
-                    break;
-                }
+            String photoUri = treeData.photoUri(index);
+            if (pendingAvatars.containsKey(photoUri) || avatarLoader.getCached(photoUri, sizePx) != null) {
+                continue;
             }
-            if (parentB != null) {
-                if (parentB.x < parentA.x) {
-                    TreeNode tmp = parentA;
-                    parentA = parentB;
-                    parentB = tmp;
-                }
-                String pairKey = edgeKey(parentA.person.id, parentB.person.id);
-                coupleChildrenByKey
-                        .computeIfAbsent(pairKey, key -> new ArrayList<>())
-                        .add(child.person.id);
-                ParentPair pair = pairMap.get(pairKey);
-                if (pair == null) {
-                    pair = new ParentPair(pairKey, parentA, parentB);
-                    pairMap.put(pairKey, pair);
-                }
-                pair.children.add(child);
+            pendingAvatars.put(photoUri, index);
+            avatarLoader.load(photoUri, sizePx, avatarListener, avatarPriority(index));
+        }
+    }
+
+    private float avatarPriority(int index) {
+        float dx = treeData.x(index) - viewportCenterX;
+        float dy = treeData.y(index) - viewportCenterY;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Draws the edges whose bounds reach the given world rectangle, gathered from the edge grid into
+     * one {@code drawLines} buffer per focus state.
+     */
+    private void drawEdges(Canvas canvas, float left, float top, float right, float bottom) {
+        float inset = linePaint.getStrokeWidth();
+        int visible = edgeGrid.query(left - inset, top - inset, right + inset, bottom + inset);
+        if (focusedEdgeLines.length < visible * 4) {
+            focusedEdgeLines = new float[segmentLines.length];
+            dimmedEdgeLines = new float[segmentLines.length];
+        }
+        int focusedFloats = 0;
+        int dimmedFloats = 0;
+        for (int i = 0; i < visible; i++) {
+            int segment = edgeGrid.resultAt(i);
+            if (segmentFocused[segment]) {
+                System.arraycopy(segmentLines, segment * 4, focusedEdgeLines, focusedFloats, 4);
+                focusedFloats += 4;
             } else {
-                addSingleParentSegments(child, parentA);
+                System.arraycopy(segmentLines, segment * 4, dimmedEdgeLines, dimmedFloats, 4);
+                dimmedFloats += 4;
             }
         }
+        int originalAlpha = linePaint.getAlpha();
+        if (dimmedFloats > 0) {
+            linePaint.setAlpha(DIM_ALPHA);
+            canvas.drawLines(dimmedEdgeLines, 0, dimmedFloats, linePaint);
+        }
+        if (focusedFloats > 0) {
+            linePaint.setAlpha(255);
+            canvas.drawLines(focusedEdgeLines, 0, focusedFloats, linePaint);
+        }
+        linePaint.setAlpha(originalAlpha);
+    }
 
-        for (ParentPair pair : pairMap.values()) {
-            addParentPairSegments(pair);
+    /**
+     * Marks each edge as focused or dimmed. Must run after the segments or the focus set change.
+     */
+    private void rebuildEdgeFocus() {
+        if (segmentFocused.length < segmentCount) {
+            segmentFocused = new boolean[segmentTypes.length];
         }
+        for (int segment = 0; segment < segmentCount; segment++) {
+            segmentFocused[segment] = !focusActive || isSegmentInFocus(segment);
+        }
+    }
 
-        if (!spousePairs.isEmpty()) {
-            Set<String> added = new HashSet<>();
-            for (String key : spousePairs) {
-                if (coupleChildrenByKey.containsKey(key)) {
-                    continue;
-                }
-                if (added.add(key)) {
-                    String[] parts = key.split(":", 2);
-                    if (parts.length != 2) {
-                        continue;
-                    }
-                    long firstId;
-                    long secondId;
-                    try {
-                        firstId = Long.parseLong(parts[0]);
-                        secondId = Long.parseLong(parts[1]);
-                    } catch (NumberFormatException e) {
-                        continue;
-                    }
-                    TreeNode first = nodeMap.get(firstId);
-                    TreeNode second = nodeMap.get(secondId);
-                    if (first != null && second != null) {
-                        addSpouseSegment(first, second, key);
-                    }
-                }
+    /**
+     * Every edge with the given focus state, packed for a tree snapshot.
+     */
+    private float[] packSegments(boolean focused) {
+        float[] lines = new float[segmentCount * 4];
+        int floats = 0;
+        for (int segment = 0; segment < segmentCount; segment++) {
+            if (segmentFocused[segment] == focused) {
+                System.arraycopy(segmentLines, segment * 4, lines, floats, 4);
+                floats += 4;
+            }
+        }
+        return Arrays.copyOf(lines, floats);
+    }
+
+    private void rebuildEdgeGrid() {
+        float[] minX = new float[segmentCount];
+        float[] minY = new float[segmentCount];
+        float[] maxX = new float[segmentCount];
+        float[] maxY = new float[segmentCount];
+        for (int segment = 0; segment < segmentCount; segment++) {
+            int offset = segment * 4;
+            minX[segment] = Math.min(segmentLines[offset], segmentLines[offset + 2]);
+            minY[segment] = Math.min(segmentLines[offset + 1], segmentLines[offset + 3]);
+            maxX[segment] = Math.max(segmentLines[offset], segmentLines[offset + 2]);
+            maxY[segment] = Math.max(segmentLines[offset + 1], segmentLines[offset + 3]);
+        }
+        edgeGrid.build(segmentCount, minX, minY, maxX, maxY);
+    }
+
+    private boolean isSegmentInFocus(int segment) {
+        TreeGraph graph = treeData.graph;
+        int owner = segmentOwners[segment];
+        switch (segmentTypes[segment]) {
+            case SEGMENT_CHILD:
+                return focusNodes[owner] && focusNodes[graph.parent(owner, 0)];
+            case SEGMENT_COUPLE:
+                return isCoupleInFocus(owner);
+            default:
+                return focusNodes[graph.spousePairFirst(owner)] && focusNodes[graph.spousePairSecond(owner)];
+        }
+    }
+
+    private void rebuildEdgeSegments() {
+        segmentCount = 0;
+        if (treeData == null) {
+            return;
+        }
+        TreeGraph graph = treeData.graph;
+        for (int child = 0; child < graph.nodeCount; child++) {
+            if (graph.parentCount(child) > 0 && graph.coupleOf(child) < 0) {
+                addSingleParentSegments(child, graph.parent(child, 0));
             }
         }
+        for (int couple = 0; couple < graph.coupleCount; couple++) {
+            addParentPairSegments(graph, couple);
+        }
+        for (int pair = 0; pair < graph.spousePairCount; pair++) {
+            addSpouseSegment(pair, graph.spousePairFirst(pair), graph.spousePairSecond(pair));
+        }
     }
 
-    private void addSingleParentSegments(TreeNode child, TreeNode parent) {
-        long childId = child.person.id;
-        float childTop = child.y - baseRadius;
-        float parentBottom = parent.y + baseRadius;
-        addParentLineForChild(childId, parent.x, parentBottom, child.x, childTop);
+    private void addSingleParentSegments(int child, int parent) {
+        float childTop = treeData.y(child) - baseRadius;
+        float parentBottom = treeData.y(parent) + baseRadius;
+        addLine(SEGMENT_CHILD, child, treeData.x(parent), parentBottom, treeData.x(child), childTop);
     }
 
-    private void addParentPairSegments(ParentPair pair) {
-        if (pair.children.isEmpty()) {
+    private void addParentPairSegments(TreeGraph graph, int couple) {
+        int childCount = graph.coupleChildCount(couple);
+        if (childCount == 0) {
             return;
         }
-        TreeNode leftParent = pair.leftParent;
-        TreeNode rightParent = pair.rightParent;
-        float parentY = (leftParent.y + rightParent.y) / 2f;
+        int leftParent = graph.coupleLeft(couple);
+        int rightParent = graph.coupleRight(couple);
+        float leftX = treeData.x(leftParent);
+        float rightX = treeData.x(rightParent);
+        float parentY = (treeData.y(leftParent) + treeData.y(rightParent)) / 2f;
         float childY = 0f;
-        for (TreeNode child : pair.children) {
-            childY += child.y;
+        for (int i = 0; i < childCount; i++) {
+            childY += treeData.y(graph.coupleChild(couple, i));
         }
-        childY /= pair.children.size();
+        childY /= childCount;
 
         float junctionY = childY + (parentY - childY) * 0.55f;
-        float leftBottom = leftParent.y + baseRadius;
-        float rightBottom = rightParent.y + baseRadius;
+        float leftBottom = treeData.y(leftParent) + baseRadius;
+        float rightBottom = treeData.y(rightParent) + baseRadius;
 
-        addParentLineForPair(pair.key, leftParent.x, leftBottom, leftParent.x, junctionY);
-        addParentLineForPair(pair.key, rightParent.x, rightBottom, rightParent.x, junctionY);
-        addParentLineForPair(pair.key, leftParent.x, junctionY, rightParent.x, junctionY);
+        addLine(SEGMENT_COUPLE, couple, leftX, leftBottom, leftX, junctionY);
+        addLine(SEGMENT_COUPLE, couple, rightX, rightBottom, rightX, junctionY);
+        addLine(SEGMENT_COUPLE, couple, leftX, junctionY, rightX, junctionY);
 
-        for (TreeNode child : pair.children) {
-            float childTop = child.y - baseRadius;
-            addParentLineForPair(pair.key, child.x, junctionY, child.x, childTop);
+        for (int i = 0; i < childCount; i++) {
+            int child = graph.coupleChild(couple, i);
+            float childTop = treeData.y(child) - baseRadius;
+            addLine(SEGMENT_COUPLE, couple, treeData.x(child), junctionY, treeData.x(child), childTop);
         }
     }
 
-    private void addSpouseSegment(TreeNode first, TreeNode second, String edgeKey) {
-        float dx = second.x - first.x;
-        float dy = second.y - first.y;
+    private void addSpouseSegment(int pair, int first, int second) {
+        float firstX = treeData.x(first);
+        float firstY = treeData.y(first);
+        float dx = treeData.x(second) - firstX;
+        float dy = treeData.y(second) - firstY;
         float dist = (float) Math.sqrt(dx * dx + dy * dy);
         if (dist < 1f) {
             return;
@@ -380,122 +744,140 @@ public class FamilyTreeView extends View {
         }
         float ux = dx / dist;
         float uy = dy / dist;
-        float startX = first.x + ux * offset;
-        float startY = first.y + uy * offset;
-        float endX = second.x - ux * offset;
-        float endY = second.y - uy * offset;
-        addSpouseLine(edgeKey, startX, startY, endX, endY);
+        float startX = firstX + ux * offset;
+        float startY = firstY + uy * offset;
+        float endX = treeData.x(second) - ux * offset;
+        float endY = treeData.y(second) - uy * offset;
+        addLine(SEGMENT_SPOUSE, pair, startX, startY, endX, endY);
     }
 
-    private String edgeKey(long firstId, long secondId) {
-        long min = Math.min(firstId, secondId);
-        long max = Math.max(firstId, secondId);
-        return min + ":" + max;
+    /**
+     * Appends one straight piece of an edge. {@code owner} is the child index for a single-parent
+     * line, the couple index for the lines joining a couple to its children, and the spouse pair
+     * index for a spouse line.
+     */
+    private void addLine(int type, int owner, float x1, float y1, float x2, float y2) {
+        if (segmentCount == segmentTypes.length) {
+            int capacity = Math.max(16, segmentCount * 2);
+            segmentTypes = Arrays.copyOf(segmentTypes, capacity);
+            segmentOwners = Arrays.copyOf(segmentOwners, capacity);
+            segmentLines = Arrays.copyOf(segmentLines, capacity * 4);
+        }
+        segmentTypes[segmentCount] = type;
+        segmentOwners[segmentCount] = owner;
+        int offset = segmentCount * 4;
+        segmentLines[offset] = x1;
+        segmentLines[offset + 1] = y1;
+        segmentLines[offset + 2] = x2;
+        segmentLines[offset + 3] = y2;
+        segmentCount++;
     }
 
-    private void addParentLineForChild(long childId, float x1, float y1, float x2, float y2) {
-        edgeSegments.add(LineSegment.forParentChild(childId, x1, y1, x2, y2));
+    private void drawNodes(Canvas canvas, float left, float top, float right, float bottom) {
+        int visible = nodeGrid.query(left, top, right, bottom);
+        if (levelOfDetail == LOD_DOTS) {
+            drawNodeDots(canvas, visible);
+        } else {
+            for (int i = 0; i < visible; i++) {
+                int index = nodeGrid.resultAt(i);
+                if (treeData.id(index) != selectedId) {
+                    drawNode(canvas, index, !focusActive || focusNodes[index], levelOfDetail == LOD_FULL);
+                }
+            }
+        }
+        nodePaint.setAlpha(255);
+        initialsPaint.setAlpha(255);
+        photoPaint.setAlpha(255);
     }
 
-    private void addParentLineForPair(String pairKey, float x1, float y1, float x2, float y2) {
-        edgeSegments.add(LineSegment.forParentPair(pairKey, x1, y1, x2, y2));
+    /**
+     * The selected node with its animated halo, name and plus badge, drawn over the static layer on
+     * every frame.
+     */
+    private void drawSelectionOverlay(Canvas canvas) {
+        int selected = selectedId != -1L && treeData != null ? treeData.indexOf(selectedId) : -1;
+        if (selected < 0) {
+            return;
+        }
+        drawNode(canvas, selected, true, levelOfDetail == LOD_FULL);
+        nodePaint.setAlpha(255);
+        initialsPaint.setAlpha(255);
+        photoPaint.setAlpha(255);
     }
 
-    private void addSpouseLine(String edgeKey, float x1, float y1, float x2, float y2) {
-        edgeSegments.add(LineSegment.forSpouse(edgeKey, x1, y1, x2, y2));
+    /**
+     * Draws every visible node except the selected one as a round point, batched into one
+     * {@code drawPoints} call per alpha.
+     */
+    private void drawNodeDots(Canvas canvas, int visible) {
+        if (focusDots.length < visible * 2) {
+            focusDots = new float[visible * 2];
+            dimDots = new float[visible * 2];
+        }
+        int focusCount = 0;
+        int dimCount = 0;
+        for (int i = 0; i < visible; i++) {
+            int index = nodeGrid.resultAt(i);
+            if (treeData.id(index) == selectedId) {
+                continue;
+            }
+            if (!focusActive || focusNodes[index]) {
+                focusDots[focusCount++] = treeData.x(index);
+                focusDots[focusCount++] = treeData.y(index);
+            } else {
+                dimDots[dimCount++] = treeData.x(index);
+                dimDots[dimCount++] = treeData.y(index);
+            }
+        }
+        dotPaint.setAlpha(DIM_ALPHA);
+        canvas.drawPoints(dimDots, 0, dimCount, dotPaint);
+        dotPaint.setAlpha(255);
+        canvas.drawPoints(focusDots, 0, focusCount, dotPaint);
     }
 
-    private static class LineSegment {
-        static final int TYPE_PARENT = 1;
-        static final int TYPE_SPOUSE = 2;
-
-        final int type;
-        final long childId;
-        final String edgeKey;
-        final String pairKey;
-        final float x1;
-        final float y1;
-        final float x2;
-        final float y2;
-
-        private LineSegment(int type, long childId, String edgeKey, String pairKey,
-                            float x1, float y1, float x2, float y2) {
-            this.type = type;
-            this.childId = childId;
-            this.edgeKey = edgeKey;
-            this.pairKey = pairKey;
-            this.x1 = x1;
-            this.y1 = y1;
-            this.x2 = x2;
-            this.y2 = y2;
+    private void drawNode(Canvas canvas, int index, boolean inFocus, boolean showAvatar) {
+        float x = treeData.x(index);
+        float y = treeData.y(index);
+        int alpha = inFocus ? 255 : DIM_ALPHA;
+        nodePaint.setAlpha(alpha);
+        initialsPaint.setAlpha(alpha);
+        photoPaint.setAlpha(alpha);
+        float radius = baseRadius;
+        boolean selected = treeData.id(index) == selectedId;
+        if (focusActive && inFocus) {
+            radius *= FOCUS_SCALE;
         }
-
-        static LineSegment forParentChild(long childId, float x1, float y1, float x2, float y2) {
-            return new LineSegment(TYPE_PARENT, childId, null, null, x1, y1, x2, y2);
+        if (selected) {
+            radius *= selectedScale;
+            canvas.drawCircle(x, y, radius + baseRadius * 0.25f, haloPaint);
         }
+        canvas.drawCircle(x, y, radius, nodePaint);
 
-        static LineSegment forParentPair(String pairKey, float x1, float y1, float x2, float y2) {
-            return new LineSegment(TYPE_PARENT, -1L, null, pairKey, x1, y1, x2, y2);
+        String initials = treeData.initials(index);
+        if (initials.isEmpty()) {
+            initials = getResources().getString(R.string.initials_placeholder);
         }
-
-        static LineSegment forSpouse(String edgeKey, float x1, float y1, float x2, float y2) {
-            return new LineSegment(TYPE_SPOUSE, -1L, edgeKey, null, x1, y1, x2, y2);
+        Bitmap avatar = showAvatar && treeData.hasPhoto(index) ? getOrLoadBitmap(index) : null;
+        if (avatar != null) {
+            avatarRect.set(x - baseRadius, y - baseRadius, x + baseRadius, y + baseRadius);
+            canvas.drawBitmap(avatar, null, avatarRect, photoPaint);
+        } else {
+            canvas.drawText(initials, x, y + initialsPaint.getTextSize() / 3f, initialsPaint);
         }
-    }
 
-    private void drawNodes(Canvas canvas) {
-        boolean focusActive = selectedId != -1L && !focusNodeIds.isEmpty();
-        for (TreeNode node : treeData.nodes) {
-            boolean inFocus = !focusActive || focusNodeIds.contains(node.person.id);
-            int alpha = inFocus ? 255 : DIM_ALPHA;
-            nodePaint.setAlpha(alpha);
-            initialsPaint.setAlpha(alpha);
-            photoPaint.setAlpha(alpha);
-            float radius = baseRadius;
-            boolean selected = node.person.id == selectedId;
-            if (focusActive && inFocus) {
-                radius *= FOCUS_SCALE;
-            }
-            if (selected) {
-                radius *= selectedScale;
-                canvas.drawCircle(node.x, node.y, radius + baseRadius * 0.25f, haloPaint);
-            }
-            canvas.drawCircle(node.x, node.y, radius, nodePaint);
-
-            String initials = node.initials;
-            if (initials.isEmpty()) {
-                initials = getResources().getString(R.string.initials_placeholder);
-            }
-            if (node.person.photoUri != null && !node.person.photoUri.trim().isEmpty()) {
-                Bitmap avatar = getOrLoadBitmap(node.person.photoUri);
-                if (avatar != null) {
-                    float left = node.x - baseRadius;
-                    float top = node.y - baseRadius;
-                    canvas.drawBitmap(avatar, left, top, photoPaint);
-                } else {
-                    canvas.drawText(initials, node.x, node.y + initialsPaint.getTextSize() / 3f, initialsPaint);
-                }
-            } else {
-                canvas.drawText(initials, node.x, node.y + initialsPaint.getTextSize() / 3f, initialsPaint);
-            }
-
-            if (selected) {
-                String name = node.fullName;
-                if (name != null && !name.isEmpty()) {
-                    float textY = node.y + radius + baseRadius * 0.9f + nameTextHeight;
-                    canvas.drawText(name, node.x, textY, namePaint);
-                }
-                drawPlusBadge(canvas, node, radius);
+        if (selected) {
+            String name = treeData.label(index);
+            if (name != null && !name.isEmpty()) {
+                float textY = y + radius + baseRadius * 0.9f + nameTextHeight;
+                canvas.drawText(name, x, textY, namePaint);
             }
+            drawPlusBadge(canvas, x, y, radius);
         }
-        nodePaint.setAlpha(255);
-        initialsPaint.setAlpha(255);
-        photoPaint.setAlpha(255);
     }
 
-    private void drawPlusBadge(Canvas canvas, TreeNode node, float radius) {
-        float badgeX = node.x + radius * 0.72f;
-        float badgeY = node.y - radius * 0.72f;
+    private void drawPlusBadge(Canvas canvas, float x, float y, float radius) {
+        float badgeX = x + radius * 0.72f;
+        float badgeY = y - radius * 0.72f;
         canvas.drawCircle(badgeX, badgeY, plusRadius, plusPaint);
         float half = plusRadius * 0.5f;
         canvas.drawLine(badgeX - half, badgeY, badgeX + half, badgeY, plusStrokePaint);
@@ -562,6 +944,7 @@ public class FamilyTreeView extends View {
                 if (isDragging) {
                     translateX += dx;
                     translateY += dy;
+                    trackPanVelocity(dx, dy, event.getEventTime());
                     postInvalidateOnAnimation();
                 }
                 lastTouchX = event.getX(index);
@@ -570,6 +953,9 @@ public class FamilyTreeView extends View {
             case MotionEvent.ACTION_UP:
             case MotionEvent.ACTION_CANCEL:
                 isDragging = false;
+                panVelocityX = 0f;
+                panVelocityY = 0f;
+                lastMoveTime = 0L;
                 activePointerId = MotionEvent.INVALID_POINTER_ID;
                 break;
             default:
@@ -579,22 +965,32 @@ public class FamilyTreeView extends View {
         return scaleHandled || gestureHandled || true;
     }
 
+    private void trackPanVelocity(float dx, float dy, long eventTime) {
+        long elapsed = lastMoveTime == 0L ? 0L : eventTime - lastMoveTime;
+        lastMoveTime = eventTime;
+        if (elapsed <= 0L) {
+            return;
+        }
+        panVelocityX += (dx / elapsed - panVelocityX) * VELOCITY_SMOOTHING;
+        panVelocityY += (dy / elapsed - panVelocityY) * VELOCITY_SMOOTHING;
+    }
+
     private void handleSingleTap(float x, float y) {
         float worldX = toWorldX(x);
         float worldY = toWorldY(y);
 
         if (selectedId != -1L) {
-            TreeNode selectedNode = nodeMap.get(selectedId);
-            if (selectedNode != null && isOnPlusBadge(worldX, worldY, selectedNode)) {
+            int selected = treeData != null ? treeData.indexOf(selectedId) : -1;
+            if (selected >= 0 && isOnPlusBadge(worldX, worldY, selected)) {
                 if (listener != null) {
-                    listener.onAddRelativeRequested(selectedNode.person);
+                    listener.onAddRelativeRequested(treeData.person(selected));
                 }
                 return;
             }
         }
 
-        TreeNode tapped = findNodeAtWorld(worldX, worldY);
-        if (tapped == null) {
+        int tapped = findNodeAtWorld(worldX, worldY);
+        if (tapped < 0) {
             if (selectedId != -1L) {
                 setSelectedPersonId(-1L);
                 if (listener != null) {
@@ -603,45 +999,50 @@ public class FamilyTreeView extends View {
             }
             return;
         }
-        if (tapped.person.id == selectedId) {
+        if (treeData.id(tapped) == selectedId) {
             setSelectedPersonId(-1L);
             if (listener != null) {
                 listener.onNodeSelected(null);
             }
         } else {
-            setSelectedPersonId(tapped.person.id);
+            setSelectedPersonId(treeData.id(tapped));
             if (listener != null) {
-                listener.onNodeSelected(tapped.person);
+                listener.onNodeSelected(treeData.person(tapped));
             }
         }
     }
 
     private void handleDoubleTap(float x, float y) {
-        TreeNode tapped = findNodeAtWorld(toWorldX(x), toWorldY(y));
-        if (tapped != null && listener != null) {
-            listener.onNodeDoubleTap(tapped.person);
+        int tapped = findNodeAtWorld(toWorldX(x), toWorldY(y));
+        if (tapped >= 0 && listener != null) {
+            listener.onNodeDoubleTap(treeData.person(tapped));
         }
     }
 
-    private TreeNode findNodeAtWorld(float worldX, float worldY) {
-        if (treeData == null || treeData.nodes == null) {
-            return null;
+    /**
+     * Index of the node under the world point, or -1.
+     */
+    private int findNodeAtWorld(float worldX, float worldY) {
+        if (treeData == null) {
+            return -1;
         }
-        float radius = baseRadius * 1.2f;
-        for (TreeNode node : treeData.nodes) {
-            float dx = worldX - node.x;
-            float dy = worldY - node.y;
+        float radius = baseRadius * HIT_RADIUS_FACTOR;
+        int candidates = nodeGrid.query(worldX - radius, worldY - radius, worldX + radius, worldY + radius);
+        for (int i = 0; i < candidates; i++) {
+            int index = nodeGrid.resultAt(i);
+            float dx = worldX - treeData.x(index);
+            float dy = worldY - treeData.y(index);
             if (dx * dx + dy * dy <= radius * radius) {
-                return node;
+                return index;
             }
         }
-        return null;
+        return -1;
     }
 
-    private boolean isOnPlusBadge(float worldX, float worldY, TreeNode node) {
+    private boolean isOnPlusBadge(float worldX, float worldY, int index) {
         float radius = baseRadius;
-        float badgeX = node.x + radius * 0.72f;
-        float badgeY = node.y - radius * 0.72f;
+        float badgeX = treeData.x(index) + radius * 0.72f;
+        float badgeY = treeData.y(index) - radius * 0.72f;
         float dx = worldX - badgeX;
         float dy = worldY - badgeY;
         float hit = plusRadius * 1.3f;
@@ -672,255 +1073,115 @@ public class FamilyTreeView extends View {
         selectionAnimator.start();
     }
 
+    /**
+     * Marks the selected node, all its ancestors and descendants, and its spouses.
+     */
     private void rebuildFocusSet() {
-        focusNodeIds.clear();
-        focusChildEdgeIds.clear();
-        focusSpouseEdgeKeys.clear();
-        if (selectedId == -1L || treeData == null || treeData.edges == null) {
-            return;
+        int count = treeData != null ? treeData.size() : 0;
+        if (focusNodes.length < count) {
+            focusNodes = new boolean[count];
+            focusVisited = new boolean[count];
+            focusQueue = new int[count];
+        } else {
+            Arrays.fill(focusNodes, false);
         }
-        TreeNode selectedNode = nodeMap.get(selectedId);
-        if (selectedNode == null) {
+        focusActive = false;
+        int selected = selectedId != -1L && count > 0 ? treeData.indexOf(selectedId) : -1;
+        if (selected < 0) {
             return;
         }
-
-        Map<Long, List<Long>> parentsByChild = new HashMap<>();
-        Map<Long, List<Long>> childrenByParent = new HashMap<>();
-        Map<Long, List<Long>> spousesByPerson = new HashMap<>();
-
-        for (TreeEdge edge : treeData.edges) {
-            TreeNode from = nodeMap.get(edge.fromId);
-            TreeNode to = nodeMap.get(edge.toId);
-            if (from == null || to == null) {
-                continue;
-            }
-            if (from.level == to.level) {
-                spousesByPerson
-                        .computeIfAbsent(from.person.id, id -> new ArrayList<>())
-                        .add(to.person.id);
-                spousesByPerson
-                        .computeIfAbsent(to.person.id, id -> new ArrayList<>())
-                        .add(from.person.id);
-                continue;
-            }
-            TreeNode parent = from.level < to.level ? from : to;
-            TreeNode child = from.level < to.level ? to : from;
-            parentsByChild
-                    .computeIfAbsent(child.person.id, id -> new ArrayList<>())
-                    .add(parent.person.id);
-            childrenByParent
-                    .computeIfAbsent(parent.person.id, id -> new ArrayList<>())
-                    .add(child.person.id);
-        }
-
-        focusNodeIds.add(selectedId);
-
-        ArrayDeque<Long> queue = new ArrayDeque<>();
-        Set<Long> visited = new HashSet<>();
-        queue.add(selectedId);
-        visited.add(selectedId);
-        while (!queue.isEmpty()) {
-            long current = queue.poll();
-            List<Long> parents = parentsByChild.get(current);
-            if (parents == null) {
-                continue;
-            }
-            for (Long parentId : parents) {
-                if (visited.add(parentId)) {
-                    focusNodeIds.add(parentId);
-                    queue.add(parentId);
-                }
-            }
-        }
-
-        queue.clear();
-        visited.clear();
-        queue.add(selectedId);
-        visited.add(selectedId);
-        while (!queue.isEmpty()) {
-            long current = queue.poll();
-            List<Long> children = childrenByParent.get(current);
-            if (children == null) {
-                continue;
-            }
-            for (Long childId : children) {
-                if (visited.add(childId)) {
-                    focusNodeIds.add(childId);
-                    queue.add(childId);
-                }
-            }
-        }
-
-        List<Long> spouses = spousesByPerson.get(selectedId);
-        if (spouses != null) {
-            for (Long spouseId : spouses) {
-                focusNodeIds.add(spouseId);
-            }
-        }
-
-        for (Map.Entry<Long, List<Long>> entry : parentsByChild.entrySet()) {
-            long childId = entry.getKey();
-            if (!focusNodeIds.contains(childId)) {
-                continue;
-            }
-            List<Long> parents = entry.getValue();
-            if (parents == null) {
-                continue;
-            }
-            for (Long parentId : parents) {
-                if (focusNodeIds.contains(parentId)) {
-                    focusChildEdgeIds.add(childId);
-                    break;
-                }
-            }
+        TreeGraph graph = treeData.graph;
+        focusActive = true;
+        focusNodes[selected] = true;
+        walkFocus(graph, selected, count, true);
+        walkFocus(graph, selected, count, false);
+        for (int i = 0; i < graph.spouseCount(selected); i++) {
+            focusNodes[graph.spouse(selected, i)] = true;
         }
+    }
 
-        Set<String> spouseKeys = new HashSet<>();
-        for (Map.Entry<Long, List<Long>> entry : spousesByPerson.entrySet()) {
-            long personId = entry.getKey();
-            List<Long> spouseIds = entry.getValue();
-            if (spouseIds == null) {
-                continue;
-            }
-            for (Long spouseId : spouseIds) {
-                String key = edgeKey(personId, spouseId);
-                if (spouseKeys.add(key)
-                        && !coupleChildrenByKey.containsKey(key)
-                        && focusNodeIds.contains(personId)
-                        && focusNodeIds.contains(spouseId)) {
-                    focusSpouseEdgeKeys.add(key);
+    private void walkFocus(TreeGraph graph, int start, int count, boolean towardsParents) {
+        Arrays.fill(focusVisited, 0, count, false);
+        int head = 0;
+        int tail = 0;
+        focusQueue[tail++] = start;
+        focusVisited[start] = true;
+        while (head < tail) {
+            int current = focusQueue[head++];
+            int degree = towardsParents ? graph.parentCount(current) : graph.childCount(current);
+            for (int i = 0; i < degree; i++) {
+                int next = towardsParents ? graph.parent(current, i) : graph.child(current, i);
+                if (!focusVisited[next]) {
+                    focusVisited[next] = true;
+                    focusNodes[next] = true;
+                    focusQueue[tail++] = next;
                 }
             }
         }
     }
 
-    private boolean isPairInFocus(String pairKey) {
-        if (pairKey == null || focusNodeIds.isEmpty()) {
-            return false;
-        }
-        String[] parts = pairKey.split(":", 2);
-        if (parts.length == 2) {
-            try {
-                long first = Long.parseLong(parts[0]);
-                long second = Long.parseLong(parts[1]);
-                if (focusNodeIds.contains(first) || focusNodeIds.contains(second)) {
-                    return true;
-                }
-            } catch (NumberFormatException ignored) {
-            }
-        }
-        List<Long> children = coupleChildrenByKey.get(pairKey);
-        if (children == null) {
-            return false;
+    private boolean isCoupleInFocus(int couple) {
+        TreeGraph graph = treeData.graph;
+        if (focusNodes[graph.coupleLeft(couple)] || focusNodes[graph.coupleRight(couple)]) {
+            return true;
         }
-        for (Long childId : children) {
-            if (focusNodeIds.contains(childId)) {
+        for (int i = 0; i < graph.coupleChildCount(couple); i++) {
+            if (focusNodes[graph.coupleChild(couple, i)]) {
                 return true;
             }
         }
         return false;
     }
 
-    private static class ParentPair {
-        final String key;
-        final TreeNode leftParent;
-        final TreeNode rightParent;
-        final List<TreeNode> children = new ArrayList<>();
-
-        ParentPair(String key, TreeNode leftParent, TreeNode rightParent) {
-            this.key = key;
-            this.leftParent = leftParent;
-            this.rightParent = rightParent;
-        }
-    }
-
-    private Bitmap getOrLoadBitmap(String uriString) {
-        Bitmap cached = bitmapCache.get(uriString);
+    /**
+     * Returns the avatar at the current tier, or the closest cached tier (larger ones first) while the
+     * current one decodes.
+     */
+    private Bitmap getOrLoadBitmap(int index) {
+        String photoUri = treeData.photoUri(index);
+        Bitmap cached = avatarLoader.getCached(photoUri, avatarTierSizes[avatarTier]);
         if (cached != null) {
             return cached;
         }
-        if (loadingUris.add(uriString)) {
-            bitmapExecutor.execute(() -> {
-                Bitmap loaded = decodeCircleBitmap(uriString, bitmapSizePx);
-                if (loaded != null) {
-                    bitmapCache.put(uriString, loaded);
-                }
-                loadingUris.remove(uriString);
-                postInvalidateOnAnimation();
-            });
+        if (!pendingAvatars.containsKey(photoUri)) {
+            pendingAvatars.put(photoUri, index);
+            avatarLoader.load(photoUri, avatarTierSizes[avatarTier], avatarListener, avatarPriority(index));
         }
-        return null;
-    }
-
-    private Bitmap decodeCircleBitmap(String uriString, int size) {
-        try {
-            Bitmap decoded = decodeSampledBitmap(uriString, size, size);
-            if (decoded == null) {
-                return null;
-            }
-            Bitmap output = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(output);
-            android.graphics.BitmapShader shader = new android.graphics.BitmapShader(decoded, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
-            Matrix matrix = new Matrix();
-            float scale = Math.max((float) size / decoded.getWidth(), (float) size / decoded.getHeight());
-            float dx = (size - decoded.getWidth() * scale) * 0.5f;
-            float dy = (size - decoded.getHeight() * scale) * 0.5f;
-            matrix.setScale(scale, scale);
-            matrix.postTranslate(dx, dy);
-            shader.setLocalMatrix(matrix);
-            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            paint.setShader(shader);
-            float radius = size / 2f;
-            canvas.drawCircle(radius, radius, radius, paint);
-            decoded.recycle();
-            return output;
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
-    private Bitmap decodeSampledBitmap(String uriString, int reqWidth, int reqHeight) {
-        try {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            try (InputStream boundsStream = getContext().getContentResolver().openInputStream(android.net.Uri.parse(uriString))) {
-                if (boundsStream == null) {
-                    return null;
+        for (int step = 1; step < avatarTierSizes.length; step++) {
+            int higher = avatarTier + step;
+            if (higher < avatarTierSizes.length) {
+                cached = avatarLoader.getCached(photoUri, avatarTierSizes[higher]);
+                if (cached != null) {
+                    return cached;
                 }
-                BitmapFactory.decodeStream(boundsStream, null, options);
             }
-            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
-            options.inJustDecodeBounds = false;
-            try (InputStream decodeStream = getContext().getContentResolver().openInputStream(android.net.Uri.parse(uriString))) {
-                if (decodeStream == null) {
-                    return null;
+            int lower = avatarTier - step;
+            if (lower >= 0) {
+                cached = avatarLoader.getCached(photoUri, avatarTierSizes[lower]);
+                if (cached != null) {
+                    return cached;
                 }
-                return BitmapFactory.decodeStream(decodeStream, null, options);
             }
-        } catch (Exception e) {
-            return null;
         }
-    }
-
-    private int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        int height = options.outHeight;
-        int width = options.outWidth;
-        int inSampleSize = 1;
-        if (height > reqHeight || width > reqWidth) {
-            int halfHeight = height / 2;
-            int halfWidth = width / 2;
-            while ((halfHeight / inSampleSize) >= reqHeight
-                    && (halfWidth / inSampleSize) >= reqWidth) {
-                inSampleSize *= 2;
-            }
-        }
-        return inSampleSize;
+        return null;
     }
 
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        bitmapExecutor.shutdownNow();
+        avatarLoader.cancel(avatarListener);
+        pendingAvatars.clear();
+        avatarsArrived = false;
+        staticLayer.release();
+        stopTileRenderer();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (tiledRendering) {
+            startTileRenderer();
+        }
     }
 
     private float clamp(float value, float min, float max) {
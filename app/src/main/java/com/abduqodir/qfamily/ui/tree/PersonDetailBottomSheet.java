@@ -12,6 +12,8 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.abduqodir.qfamily.R;
 import com.abduqodir.qfamily.data.Person;
+import com.abduqodir.qfamily.image.AvatarLoader;
+import com.abduqodir.qfamily.repository.PersonDetails;
 import com.abduqodir.qfamily.repository.PersonRepository;
 import com.abduqodir.qfamily.repository.RepositoryCallback;
 import com.abduqodir.qfamily.util.DateUtils;
@@ -51,10 +53,17 @@ public class PersonDetailBottomSheet extends BottomSheetDialogFragment {
             return;
         }
         repository = new PersonRepository(requireContext());
-        repository.getPersonById(personId, new RepositoryCallback<Person>() {
+        repository.getPersonDetails(personId, new RepositoryCallback<PersonDetails>() {
             @Override
-            public void onComplete(Person person) {
-                bind(view, person);
+            public void onComplete(PersonDetails details) {
+                if (!isAdded()) {
+                    return;
+                }
+                if (details == null) {
+                    dismiss();
+                    return;
+                }
+                bind(view, details);
             }
 
             @Override
@@ -63,11 +72,17 @@ public class PersonDetailBottomSheet extends BottomSheetDialogFragment {
         });
     }
 
-    private void bind(View view, Person person) {
-        if (person == null) {
-            dismiss();
-            return;
+    @Override
+    public void onDestroyView() {
+        View view = getView();
+        if (view != null) {
+            AvatarLoader.getInstance(requireContext()).unbind(view.findViewById(R.id.imageAvatar));
         }
+        super.onDestroyView();
+    }
+
+    private void bind(View view, PersonDetails details) {
+        Person person = details.person;
 
         ImageView imageAvatar = view.findViewById(R.id.imageAvatar);
         TextView textInitials = view.findViewById(R.id.textInitials);
@@ -82,7 +97,8 @@ public class PersonDetailBottomSheet extends BottomSheetDialogFragment {
         boolean loaded = false;
         if (person.photoUri != null && !person.photoUri.trim().isEmpty()) {
             try {
-                imageAvatar.setImageURI(Uri.parse(person.photoUri));
+                int sizePx = getResources().getDimensionPixelSize(R.dimen.avatar_preview_size);
+                AvatarLoader.getInstance(requireContext()).bind(imageAvatar, person.photoUri, sizePx, null);
                 imageAvatar.setVisibility(View.VISIBLE);
                 textInitials.setVisibility(View.GONE);
                 loaded = true;
@@ -99,8 +115,7 @@ public class PersonDetailBottomSheet extends BottomSheetDialogFragment {
             textInitials.setVisibility(View.VISIBLE);
             imageAvatar.setVisibility(View.INVISIBLE);
             if (person.photoUri != null) {
-                person.photoUri = null;
-                new PersonRepository(requireContext()).updatePerson(person);
+                repository.updatePerson(person.id, stored -> stored.photoUri = null, null);
             }
         }
 
@@ -122,7 +137,7 @@ public class PersonDetailBottomSheet extends BottomSheetDialogFragment {
 
         textSpouse.setVisibility(View.GONE);
         textChildren.setVisibility(View.GONE);
-        bindRelations(person, textSpouse, textChildren);
+        bindRelations(details, textSpouse, textChildren);
 
         buttonEdit.setOnClickListener(v -> {
             if (getContext() != null) {
@@ -135,57 +150,30 @@ public class PersonDetailBottomSheet extends BottomSheetDialogFragment {
         buttonDelete.setOnClickListener(v -> showDeleteConfirm(person));
     }
 
-    private void bindRelations(Person person, TextView textSpouse, TextView textChildren) {
-        if (person == null || repository == null) {
-            return;
-        }
-        if (person.spouseId != null) {
-            repository.getPersonById(person.spouseId, new RepositoryCallback<Person>() {
-                @Override
-                public void onComplete(Person spouse) {
-                    if (!isAdded() || spouse == null) {
-                        return;
-                    }
-                    String name = PersonFormatter.getFullName(spouse);
-                    if (!name.isEmpty()) {
-                        textSpouse.setText(getString(R.string.spouse_line, name));
-                        textSpouse.setVisibility(View.VISIBLE);
-                    }
-                }
-
-                @Override
-                public void onError(Throwable throwable) {
-                }
-            });
+    private void bindRelations(PersonDetails details, TextView textSpouse, TextView textChildren) {
+        if (details.spouse != null) {
+            String name = PersonFormatter.getFullName(details.spouse);
+            if (!name.isEmpty()) {
+                textSpouse.setText(getString(R.string.spouse_line, name));
+                textSpouse.setVisibility(View.VISIBLE);
+            }
         }
 
-        repository.getChildren(person.id, new RepositoryCallback<java.util.List<Person>>() {
-            @Override
-            public void onComplete(java.util.List<Person> children) {
-                if (!isAdded() || children == null || children.isEmpty()) {
-                    return;
-                }
-                StringBuilder builder = new StringBuilder();
-                for (Person child : children) {
-                    String name = PersonFormatter.getFullName(child);
-                    if (name.isEmpty()) {
-                        continue;
-                    }
-                    if (builder.length() > 0) {
-                        builder.append(", ");
-                    }
-                    builder.append(name);
-                }
-                if (builder.length() > 0) {
-                    textChildren.setText(getString(R.string.children_line, builder.toString()));
-                    textChildren.setVisibility(View.VISIBLE);
-                }
+        StringBuilder builder = new StringBuilder();
+        for (Person child : details.children) {
+            String name = PersonFormatter.getFullName(child);
+            if (name.isEmpty()) {
+                continue;
             }
-
-            @Override
-            public void onError(Throwable throwable) {
+            if (builder.length() > 0) {
+                builder.append(", ");
             }
-        });
+            builder.append(name);
+        }
+        if (builder.length() > 0) {
+            textChildren.setText(getString(R.string.children_line, builder.toString()));
+            textChildren.setVisibility(View.VISIBLE);
+        }
     }
 
     private void showDeleteConfirm(Person person) {
@@ -217,8 +205,6 @@ public class PersonDetailBottomSheet extends BottomSheetDialogFragment {
                     android.content.Intent intent = new android.content.Intent(requireContext(), com.abduqodir.qfamily.ui.onboarding.OnboardingActivity.class);
                     intent.addFlags(android.content.Intent.FLAG_ACTIVITY_NEW_TASK | android.content.Intent.FLAG_ACTIVITY_CLEAR_TASK);
                     startActivity(intent);
-                } else if (getActivity() instanceof TreeActivity) {
-                    ((TreeActivity) getActivity()).refreshTree();
                 }
                 dismiss();
             }
@@ -4,8 +4,6 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.os.SystemClock;
 import android.widget.Toast;
-import androidx.activity.result.ActivityResultLauncher;
-import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.ViewModelProvider;
 import com.abduqodir.qfamily.R;
@@ -19,9 +17,9 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 public class TreeActivity extends AppCompatActivity {
     private static final String TAG_PERSON_DETAIL = "person_detail";
     private static final long DETAIL_OPEN_DEBOUNCE_MS = 500L;
+    private static final int TILED_RENDERING_MIN_NODES = 1500;
     private TreeViewModel viewModel;
     private FamilyTreeView treeView;
-    private ActivityResultLauncher<Intent> addRelativeLauncher;
     private long lastDetailOpenAt;
 
     @Override
@@ -70,7 +68,11 @@ public class TreeActivity extends AppCompatActivity {
             }
         });
 
-        viewModel.getTreeData().observe(this, treeView::setTreeData);
+        viewModel.getTreeData().observe(this, treeData -> {
+            treeView.setTiledRenderingEnabled(treeData != null
+                    && treeData.size() >= TILED_RENDERING_MIN_NODES);
+            treeView.setTreeData(treeData);
+        });
         viewModel.getSelectedPerson().observe(this, person -> {
             if (person == null) {
                 treeView.setSelectedPersonId(-1L);
@@ -78,25 +80,11 @@ public class TreeActivity extends AppCompatActivity {
                 treeView.setSelectedPersonId(person.id);
             }
         });
-
-        if (savedInstanceState == null) {
-            viewModel.loadTree();
-        }
-
-        addRelativeLauncher = registerForActivityResult(
-                new ActivityResultContracts.StartActivityForResult(),
-                result -> {
-                    if (result.getResultCode() == RESULT_OK) {
-                        viewModel.loadTree();
-                    }
-                }
-        );
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        viewModel.loadTree();
         treeView.setViewportState(
                 viewModel.getTranslateX(),
                 viewModel.getTranslateY(),
@@ -187,11 +175,7 @@ public class TreeActivity extends AppCompatActivity {
         Intent intent = new Intent(this, AddRelativeActivity.class);
         intent.putExtra(AddRelativeActivity.EXTRA_RELATION, relationType);
         intent.putExtra(AddRelativeActivity.EXTRA_TARGET_ID, targetId);
-        addRelativeLauncher.launch(intent);
-    }
-
-    public void refreshTree() {
-        viewModel.loadTree();
+        startActivity(intent);
     }
 }
 
@@ -0,0 +1,260 @@
+package com.abduqodir.qfamily.ui.tree;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Build;
+import com.abduqodir.qfamily.ui.tree.render.SpatialGrid;
+import com.abduqodir.qfamily.ui.tree.render.TileRenderer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable copy of everything the tile renderer draws: node positions, initials, focus state and
+ * software avatars, plus the packed edge buffers. The paints, grids and per-tile line buffers are
+ * private to the tile thread; the selected node is left out because the view draws it as an overlay.
+ */
+final class TreeSnapshot implements TileRenderer.Painter {
+    private static final int MAX_DIRTY_REGIONS = 64;
+
+    private final long[] ids;
+    private final float[] xs;
+    private final float[] ys;
+    private final String[] initials;
+    private final boolean[] dimmed;
+    private final Bitmap[] avatars;
+    private final float[] focusedLines;
+    private final float[] dimmedLines;
+    private final float radius;
+    private final float dotRadius;
+    private final float initialsRadius;
+    private final int dimAlpha;
+    private final Paint linePaint;
+    private final Paint nodePaint;
+    private final Paint initialsPaint;
+    private final Paint photoPaint;
+    private final SpatialGrid grid;
+    private final SpatialGrid edgeGrid;
+    private final float[] tileFocusedLines;
+    private final float[] tileDimmedLines;
+    private final RectF avatarRect = new RectF();
+
+    TreeSnapshot(long[] ids, float[] xs, float[] ys, String[] initials, boolean[] dimmed, Bitmap[] avatars,
+                 float[] focusedLines, float[] dimmedLines, float radius, float dotRadius, float initialsRadius,
+                 int dimAlpha, Paint linePaint, Paint nodePaint, Paint initialsPaint, float cellSize) {
+        this.ids = ids;
+        this.xs = xs;
+        this.ys = ys;
+        this.initials = initials;
+        this.dimmed = dimmed;
+        this.avatars = avatars;
+        this.focusedLines = focusedLines;
+        this.dimmedLines = dimmedLines;
+        this.radius = radius;
+        this.dotRadius = dotRadius;
+        this.initialsRadius = initialsRadius;
+        this.dimAlpha = dimAlpha;
+        this.linePaint = new Paint(linePaint);
+        this.nodePaint = new Paint(nodePaint);
+        this.initialsPaint = new Paint(initialsPaint);
+        this.photoPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        int count = ids.length;
+        float[] minX = new float[count];
+        float[] minY = new float[count];
+        float[] maxX = new float[count];
+        float[] maxY = new float[count];
+        for (int i = 0; i < count; i++) {
+            minX[i] = xs[i] - radius;
+            minY[i] = ys[i] - radius;
+            maxX[i] = xs[i] + radius;
+            maxY[i] = ys[i] + radius;
+        }
+        this.grid = new SpatialGrid(cellSize);
+        grid.build(count, minX, minY, maxX, maxY);
+        this.edgeGrid = buildEdgeGrid(focusedLines, dimmedLines, cellSize);
+        this.tileFocusedLines = new float[focusedLines.length];
+        this.tileDimmedLines = new float[dimmedLines.length];
+    }
+
+    /**
+     * Indexes every line segment by its bounds; focused segments come first, so an index below
+     * the focused count refers to {@code focusedLines} and the rest to {@code dimmedLines}.
+     */
+    private static SpatialGrid buildEdgeGrid(float[] focusedLines, float[] dimmedLines, float cellSize) {
+        int focusedCount = focusedLines.length / 4;
+        int count = focusedCount + dimmedLines.length / 4;
+        float[] minX = new float[count];
+        float[] minY = new float[count];
+        float[] maxX = new float[count];
+        float[] maxY = new float[count];
+        for (int segment = 0; segment < count; segment++) {
+            float[] lines = segment < focusedCount ? focusedLines : dimmedLines;
+            int offset = (segment < focusedCount ? segment : segment - focusedCount) * 4;
+            minX[segment] = Math.min(lines[offset], lines[offset + 2]);
+            minY[segment] = Math.min(lines[offset + 1], lines[offset + 3]);
+            maxX[segment] = Math.max(lines[offset], lines[offset + 2]);
+            maxY[segment] = Math.max(lines[offset + 1], lines[offset + 3]);
+        }
+        SpatialGrid edgeGrid = new SpatialGrid(cellSize);
+        edgeGrid.build(count, minX, minY, maxX, maxY);
+        return edgeGrid;
+    }
+
+    /**
+     * Only software bitmaps can be drawn into a tile; hardware ones are treated as not loaded.
+     */
+    static Bitmap softwareOnly(Bitmap bitmap) {
+        if (bitmap == null || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                && bitmap.getConfig() == Bitmap.Config.HARDWARE)) {
+            return null;
+        }
+        return bitmap;
+    }
+
+    @Override
+    public void paint(Canvas canvas, float left, float top, float right, float bottom, float scale) {
+        paintLines(canvas, left, top, right, bottom);
+
+        float screenRadius = radius * scale;
+        boolean showText = screenRadius >= dotRadius;
+        boolean showAvatar = screenRadius >= initialsRadius;
+        int visible = grid.query(left, top, right, bottom);
+        for (int i = 0; i < visible; i++) {
+            int index = grid.resultAt(i);
+            int alpha = dimmed[index] ? dimAlpha : 255;
+            nodePaint.setAlpha(alpha);
+            canvas.drawCircle(xs[index], ys[index], radius, nodePaint);
+            if (showAvatar && avatars[index] != null) {
+                photoPaint.setAlpha(alpha);
+                avatarRect.set(xs[index] - radius, ys[index] - radius, xs[index] + radius, ys[index] + radius);
+                canvas.drawBitmap(avatars[index], null, avatarRect, photoPaint);
+            } else if (showText) {
+                initialsPaint.setAlpha(alpha);
+                canvas.drawText(initials[index], xs[index], ys[index] + initialsPaint.getTextSize() / 3f,
+                        initialsPaint);
+            }
+        }
+    }
+
+    /**
+     * Draws only the segments whose bounds reach this tile, instead of every edge in the tree.
+     */
+    private void paintLines(Canvas canvas, float left, float top, float right, float bottom) {
+        float inset = linePaint.getStrokeWidth();
+        int focusedCount = focusedLines.length / 4;
+        int focusedFloats = 0;
+        int dimmedFloats = 0;
+        int visible = edgeGrid.query(left - inset, top - inset, right + inset, bottom + inset);
+        for (int i = 0; i < visible; i++) {
+            int segment = edgeGrid.resultAt(i);
+            if (segment < focusedCount) {
+                System.arraycopy(focusedLines, segment * 4, tileFocusedLines, focusedFloats, 4);
+                focusedFloats += 4;
+            } else {
+                System.arraycopy(dimmedLines, (segment - focusedCount) * 4, tileDimmedLines, dimmedFloats, 4);
+                dimmedFloats += 4;
+            }
+        }
+        if (dimmedFloats > 0) {
+            linePaint.setAlpha(dimAlpha);
+            canvas.drawLines(tileDimmedLines, 0, dimmedFloats, linePaint);
+        }
+        if (focusedFloats > 0) {
+            linePaint.setAlpha(255);
+            canvas.drawLines(tileFocusedLines, 0, focusedFloats, linePaint);
+        }
+    }
+
+    /**
+     * World rectangles whose pixels differ between {@code previous} and this snapshot, or null when
+     * so much changed that every tile should go.
+     */
+    List<RectF> dirtyRegions(TreeSnapshot previous) {
+        if (previous == null) {
+            return null;
+        }
+        List<RectF> regions = new ArrayList<>();
+        Map<Long, Integer> previousIndex = new HashMap<>();
+        for (int i = 0; i < previous.ids.length; i++) {
+            previousIndex.put(previous.ids[i], i);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            Integer old = previousIndex.remove(ids[i]);
+            if (old == null) {
+                regions.add(nodeBounds(xs[i], ys[i]));
+            } else if (previous.xs[old] != xs[i] || previous.ys[old] != ys[i]
+                    || previous.dimmed[old] != dimmed[i] || previous.avatars[old] != avatars[i]
+                    || !previous.initials[old].equals(initials[i])) {
+                regions.add(nodeBounds(previous.xs[old], previous.ys[old]));
+                regions.add(nodeBounds(xs[i], ys[i]));
+            }
+            if (regions.size() > MAX_DIRTY_REGIONS) {
+                return null;
+            }
+        }
+        for (int old : previousIndex.values()) {
+            regions.add(nodeBounds(previous.xs[old], previous.ys[old]));
+        }
+        if (!addChangedLines(regions, previous.focusedLines, focusedLines)
+                || !addChangedLines(regions, previous.dimmedLines, dimmedLines)) {
+            return null;
+        }
+        return regions.size() > MAX_DIRTY_REGIONS ? null : regions;
+    }
+
+    private RectF nodeBounds(float x, float y) {
+        float extent = radius * 1.5f;
+        return new RectF(x - extent, y - extent, x + extent, y + extent);
+    }
+
+    private boolean addChangedLines(List<RectF> regions, float[] before, float[] after) {
+        Set<Line> beforeSet = Line.setOf(before);
+        Set<Line> afterSet = Line.setOf(after);
+        for (Line line : afterSet) {
+            if (!beforeSet.remove(line)) {
+                regions.add(line.bounds(linePaint.getStrokeWidth()));
+            }
+        }
+        for (Line line : beforeSet) {
+            regions.add(line.bounds(linePaint.getStrokeWidth()));
+        }
+        return regions.size() <= MAX_DIRTY_REGIONS;
+    }
+
+    private static final class Line {
+        final float[] points;
+
+        Line(float[] points) {
+            this.points = points;
+        }
+
+        static Set<Line> setOf(float[] lines) {
+            Set<Line> set = new HashSet<>();
+            for (int i = 0; i + 3 < lines.length; i += 4) {
+                set.add(new Line(Arrays.copyOfRange(lines, i, i + 4)));
+            }
+            return set;
+        }
+
+        RectF bounds(float inset) {
+            return new RectF(Math.min(points[0], points[2]) - inset, Math.min(points[1], points[3]) - inset,
+                    Math.max(points[0], points[2]) + inset, Math.max(points[1], points[3]) + inset);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Line && Arrays.equals(points, ((Line) other).points);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(points);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.abduqodir.qfamily.ui.tree.layout;
+
+import java.util.Arrays;
+
+/**
+ * Reingold-Tilford tree with Walker's threads and Buchheim's linear-time shifting.
+ * Node 0 is the root and every node must be added after its parent, so both walks can run
+ * iteratively over the insertion order instead of recursing.
+ */
+final class TidyTree {
+    private final float subtreeGap;
+
+    private int size;
+    private float[] width;
+    private int[] parent;
+    private int[] firstChild;
+    private int[] lastChild;
+    private int[] prevSibling;
+    private int[] nextSibling;
+    private int[] number;
+    private int[] thread;
+    private int[] ancestor;
+    private float[] prelim;
+    private float[] mod;
+    private float[] change;
+    private float[] shift;
+    private float[] x;
+
+    TidyTree(int capacity, float subtreeGap) {
+        this.subtreeGap = subtreeGap;
+        int initial = Math.max(4, capacity);
+        width = new float[initial];
+        parent = new int[initial];
+        firstChild = new int[initial];
+        lastChild = new int[initial];
+        prevSibling = new int[initial];
+        nextSibling = new int[initial];
+        number = new int[initial];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int addNode(int parentNode, float nodeWidth) {
+        ensureCapacity(size + 1);
+        int node = size++;
+        width[node] = nodeWidth;
+        parent[node] = parentNode;
+        firstChild[node] = -1;
+        lastChild[node] = -1;
+        prevSibling[node] = -1;
+        nextSibling[node] = -1;
+        number[node] = 1;
+        if (parentNode >= 0) {
+            int last = lastChild[parentNode];
+            if (last == -1) {
+                firstChild[parentNode] = node;
+            } else {
+                prevSibling[node] = last;
+                nextSibling[last] = node;
+                number[node] = number[last] + 1;
+            }
+            lastChild[parentNode] = node;
+        }
+        return node;
+    }
+
+    float x(int node) {
+        return x[node];
+    }
+
+    void layout() {
+        thread = new int[size];
+        ancestor = new int[size];
+        prelim = new float[size];
+        mod = new float[size];
+        change = new float[size];
+        shift = new float[size];
+        x = new float[size];
+        Arrays.fill(thread, -1);
+        for (int i = 0; i < size; i++) {
+            ancestor[i] = i;
+        }
+
+        for (int v = size - 1; v >= 0; v--) {
+            if (firstChild[v] == -1) {
+                continue;
+            }
+            int defaultAncestor = firstChild[v];
+            for (int w = firstChild[v]; w != -1; w = nextSibling[w]) {
+                placeRelativeToLeftSibling(w);
+                defaultAncestor = apportion(w, defaultAncestor);
+            }
+            executeShifts(v);
+        }
+        if (size > 0) {
+            placeRelativeToLeftSibling(0);
+        }
+
+        float[] modSum = new float[size];
+        for (int v = 0; v < size; v++) {
+            if (parent[v] >= 0) {
+                modSum[v] = modSum[parent[v]] + mod[parent[v]];
+            }
+            x[v] = prelim[v] + modSum[v];
+        }
+    }
+
+    private void placeRelativeToLeftSibling(int v) {
+        float midpoint = 0f;
+        if (firstChild[v] != -1) {
+            midpoint = (prelim[firstChild[v]] + prelim[lastChild[v]]) / 2f;
+        }
+        int left = prevSibling[v];
+        if (left != -1) {
+            prelim[v] = prelim[left] + distance(left, v);
+            mod[v] = prelim[v] - midpoint;
+        } else {
+            prelim[v] = midpoint;
+        }
+    }
+
+    private int apportion(int v, int defaultAncestor) {
+        int left = prevSibling[v];
+        if (left == -1) {
+            return defaultAncestor;
+        }
+        int vip = v;
+        int vop = v;
+        int vim = left;
+        int vom = firstChild[parent[v]];
+        float sip = mod[vip];
+        float sop = mod[vop];
+        float sim = mod[vim];
+        float som = mod[vom];
+        while (nextRight(vim) != -1 && nextLeft(vip) != -1) {
+            vim = nextRight(vim);
+            vip = nextLeft(vip);
+            vom = nextLeft(vom);
+            vop = nextRight(vop);
+            ancestor[vop] = v;
+            float gap = (prelim[vim] + sim) - (prelim[vip] + sip) + distance(vim, vip);
+            if (gap > 0f) {
+                moveSubtree(ancestorOf(vim, v, defaultAncestor), v, gap);
+                sip += gap;
+                sop += gap;
+            }
+            sim += mod[vim];
+            sip += mod[vip];
+            som += mod[vom];
+            sop += mod[vop];
+        }
+        if (nextRight(vim) != -1 && nextRight(vop) == -1) {
+            thread[vop] = nextRight(vim);
+            mod[vop] += sim - sop;
+        }
+        if (nextLeft(vip) != -1 && nextLeft(vom) == -1) {
+            thread[vom] = nextLeft(vip);
+            mod[vom] += sip - som;
+            defaultAncestor = v;
+        }
+        return defaultAncestor;
+    }
+
+    private void moveSubtree(int wm, int wp, float amount) {
+        int subtrees = number[wp] - number[wm];
+        if (subtrees <= 0) {
+            subtrees = 1;
+        }
+        float perSubtree = amount / subtrees;
+        change[wp] -= perSubtree;
+        shift[wp] += amount;
+        change[wm] += perSubtree;
+        prelim[wp] += amount;
+        mod[wp] += amount;
+    }
+
+    private void executeShifts(int v) {
+        float totalShift = 0f;
+        float totalChange = 0f;
+        for (int w = lastChild[v]; w != -1; w = prevSibling[w]) {
+            prelim[w] += totalShift;
+            mod[w] += totalShift;
+            totalChange += change[w];
+            totalShift += shift[w] + totalChange;
+        }
+    }
+
+    private int ancestorOf(int vim, int v, int defaultAncestor) {
+        int candidate = ancestor[vim];
+        return parent[candidate] == parent[v] ? candidate : defaultAncestor;
+    }
+
+    private int nextLeft(int v) {
+        return firstChild[v] != -1 ? firstChild[v] : thread[v];
+    }
+
+    private int nextRight(int v) {
+        return lastChild[v] != -1 ? lastChild[v] : thread[v];
+    }
+
+    private float distance(int a, int b) {
+        float base = (width[a] + width[b]) / 2f;
+        return parent[a] == parent[b] ? base : base + subtreeGap;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= width.length) {
+            return;
+        }
+        int capacity = Math.max(required, width.length * 2);
+        width = Arrays.copyOf(width, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        lastChild = Arrays.copyOf(lastChild, capacity);
+        prevSibling = Arrays.copyOf(prevSibling, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        number = Arrays.copyOf(number, capacity);
+    }
+}
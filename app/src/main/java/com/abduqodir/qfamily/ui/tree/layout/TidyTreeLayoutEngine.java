@@ -0,0 +1,561 @@
+package com.abduqodir.qfamily.ui.tree.layout;
+
+import com.abduqodir.qfamily.data.Person;
+import com.abduqodir.qfamily.ui.tree.model.TreeNode;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lays the family out as couple units: descendants of the root unit form one tidy tree growing
+ * down, every unit's parents form tidy trees growing up from it. A final per-level sweep keeps
+ * the in-law pedigrees hanging off descendants from overlapping the main trees. A relayout places
+ * only the new units, under their parents or over their children, and sweeps only their levels.
+ */
+public class TidyTreeLayoutEngine implements TreeLayoutEngine {
+    private static final float SUBTREE_GAP_RATIO = 0.25f;
+    private static final int FULL_LAYOUT_NEW_RATIO = 2;
+    private static final float COUPLE_TOLERANCE = 1e-3f;
+
+    @Override
+    public void layout(List<TreeNode> nodes, TreeNode root, float spacingX, float spacingY) {
+        int count = nodes.size();
+        if (count == 0 || root == null) {
+            return;
+        }
+        Map<Long, Integer> indexById = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            indexById.put(nodes.get(i).person.id, i);
+        }
+        Integer rootIndex = indexById.get(root.person.id);
+        if (rootIndex == null) {
+            return;
+        }
+
+        int[] mother = new int[count];
+        int[] father = new int[count];
+        int[] level = new int[count];
+        for (int i = 0; i < count; i++) {
+            TreeNode node = nodes.get(i);
+            level[i] = node.level;
+            mother[i] = indexOf(indexById, node.person.motherId);
+            father[i] = indexOf(indexById, node.person.fatherId);
+        }
+
+        Units units = buildUnits(nodes, indexById, level, rootIndex);
+        int[] childStart = new int[count + 1];
+        int[] childList = buildChildren(mother, father, childStart);
+
+        float subtreeGap = spacingX * SUBTREE_GAP_RATIO;
+        float[] unitX = new float[units.count];
+        boolean[] placed = new boolean[units.count];
+        int rootUnit = units.unitOf[rootIndex];
+
+        int[] downOrder = layoutDescendants(units, rootUnit, level, childStart, childList,
+                spacingX, subtreeGap, unitX, placed);
+        for (int unit : downOrder) {
+            layoutAncestors(units, unit, level, mother, father, spacingX, subtreeGap, unitX, placed);
+        }
+        for (int u = 0; u < units.count; u++) {
+            if (!placed[u]) {
+                placed[u] = true;
+                layoutAncestors(units, u, level, mother, father, spacingX, subtreeGap, unitX, placed);
+            }
+        }
+
+        float offset = unitX[rootUnit];
+        for (int u = 0; u < units.count; u++) {
+            unitX[u] -= offset;
+        }
+        resolveOverlaps(units, unitX, spacingX, null);
+        applyPositions(nodes, units, unitX, spacingX, spacingY);
+    }
+
+    /**
+     * Falls back to a full layout when the root moved or most of the nodes are new, since placing
+     * that many next to each other would only produce a worse version of the same work.
+     */
+    @Override
+    public void relayout(List<TreeNode> nodes, TreeNode root, boolean[] kept, float spacingX, float spacingY) {
+        int count = nodes.size();
+        if (count == 0 || root == null) {
+            return;
+        }
+        Map<Long, Integer> indexById = new HashMap<>(count * 2);
+        int keptCount = 0;
+        for (int i = 0; i < count; i++) {
+            indexById.put(nodes.get(i).person.id, i);
+            if (kept[i]) {
+                keptCount++;
+            }
+        }
+        Integer rootIndex = indexById.get(root.person.id);
+        if (rootIndex == null || !kept[rootIndex] || keptCount * FULL_LAYOUT_NEW_RATIO < count) {
+            layout(nodes, root, spacingX, spacingY);
+            return;
+        }
+
+        int[] mother = new int[count];
+        int[] father = new int[count];
+        int[] level = new int[count];
+        for (int i = 0; i < count; i++) {
+            TreeNode node = nodes.get(i);
+            level[i] = node.level;
+            mother[i] = indexOf(indexById, node.person.motherId);
+            father[i] = indexOf(indexById, node.person.fatherId);
+        }
+        Units units = buildUnits(nodes, indexById, level, rootIndex);
+        int[] childStart = new int[count + 1];
+        int[] childList = buildChildren(mother, father, childStart);
+
+        float[] unitX = new float[units.count];
+        boolean[] placed = new boolean[units.count];
+        boolean[] changed = new boolean[units.count];
+        int pendingCount = placeKeptUnits(nodes, units, kept, spacingX, unitX, placed, changed);
+        while (pendingCount > 0) {
+            int before = pendingCount;
+            for (int u = 0; u < units.count; u++) {
+                if (placed[u]) {
+                    continue;
+                }
+                float x = relativesX(units, u, level, mother, father, childStart, childList,
+                        spacingX, unitX, placed);
+                if (!Float.isNaN(x)) {
+                    unitX[u] = x;
+                    placed[u] = true;
+                    pendingCount--;
+                }
+            }
+            if (pendingCount == before) {
+                placeBeyondLevelEnds(units, spacingX, unitX, placed);
+                break;
+            }
+        }
+        resolveOverlaps(units, unitX, spacingX, changed);
+        applyPositions(nodes, units, unitX, spacingX, spacingY);
+    }
+
+    /**
+     * Centres the units with a kept member on where those members were, the kept one on the left
+     * when a new spouse joins it, and flags every unit whose members do not sit as before.
+     * Returns the number of units still to place.
+     */
+    private int placeKeptUnits(List<TreeNode> nodes,
+                               Units units,
+                               boolean[] kept,
+                               float spacingX,
+                               float[] unitX,
+                               boolean[] placed,
+                               boolean[] changed) {
+        int pendingCount = 0;
+        for (int u = 0; u < units.count; u++) {
+            int first = units.first[u];
+            int second = units.second[u];
+            boolean firstKept = kept[first];
+            boolean secondKept = second != -1 && kept[second];
+            if (secondKept && (!firstKept || nodes.get(second).x < nodes.get(first).x)) {
+                units.first[u] = second;
+                units.second[u] = first;
+                first = units.first[u];
+                second = units.second[u];
+                firstKept = true;
+                secondKept = kept[second];
+            }
+            if (!firstKept) {
+                changed[u] = true;
+                pendingCount++;
+                continue;
+            }
+            float firstX = nodes.get(first).x;
+            placed[u] = true;
+            if (second == -1) {
+                unitX[u] = firstX;
+            } else if (secondKept) {
+                float secondX = nodes.get(second).x;
+                unitX[u] = (firstX + secondX) / 2f;
+                changed[u] = Math.abs(secondX - firstX - spacingX) > spacingX * COUPLE_TOLERANCE;
+            } else {
+                unitX[u] = firstX + spacingX / 2f;
+                changed[u] = true;
+            }
+        }
+        return pendingCount;
+    }
+
+    /**
+     * Where a new unit goes: centred under its placed parents, or else over its placed children.
+     * NaN while none of them is placed yet.
+     */
+    private float relativesX(Units units,
+                             int unit,
+                             int[] level,
+                             int[] mother,
+                             int[] father,
+                             int[] childStart,
+                             int[] childList,
+                             float spacingX,
+                             float[] unitX,
+                             boolean[] placed) {
+        float sum = 0f;
+        int found = 0;
+        for (int m = 0; m < 2; m++) {
+            int member = m == 0 ? units.first[unit] : units.second[unit];
+            if (member == -1) {
+                continue;
+            }
+            for (int p = 0; p < 2; p++) {
+                int parentIndex = p == 0 ? mother[member] : father[member];
+                if (parentIndex != -1 && level[parentIndex] == units.level[unit] - 1
+                        && placed[units.unitOf[parentIndex]]) {
+                    sum += nodeX(units, parentIndex, spacingX, unitX);
+                    found++;
+                }
+            }
+        }
+        if (found > 0) {
+            return sum / found;
+        }
+        for (int m = 0; m < 2; m++) {
+            int member = m == 0 ? units.first[unit] : units.second[unit];
+            if (member == -1) {
+                continue;
+            }
+            for (int k = childStart[member]; k < childStart[member + 1]; k++) {
+                int child = childList[k];
+                if (level[child] == units.level[unit] + 1 && placed[units.unitOf[child]]) {
+                    sum += nodeX(units, child, spacingX, unitX);
+                    found++;
+                }
+            }
+        }
+        return found > 0 ? sum / found : Float.NaN;
+    }
+
+    /**
+     * Units with no placed relative at all are lined up past the right end of their level.
+     */
+    private void placeBeyondLevelEnds(Units units, float spacingX, float[] unitX, boolean[] placed) {
+        Map<Integer, Float> levelEnd = new HashMap<>();
+        for (int u = 0; u < units.count; u++) {
+            if (placed[u]) {
+                float end = unitX[u] + units.width(u, spacingX) / 2f;
+                Float current = levelEnd.get(units.level[u]);
+                if (current == null || end > current) {
+                    levelEnd.put(units.level[u], end);
+                }
+            }
+        }
+        for (int u = 0; u < units.count; u++) {
+            if (placed[u]) {
+                continue;
+            }
+            Float end = levelEnd.get(units.level[u]);
+            float start = end != null ? end : 0f;
+            unitX[u] = start + units.width(u, spacingX) / 2f;
+            placed[u] = true;
+            levelEnd.put(units.level[u], start + units.width(u, spacingX));
+        }
+    }
+
+    private static float nodeX(Units units, int index, float spacingX, float[] unitX) {
+        int unit = units.unitOf[index];
+        if (units.second[unit] == -1) {
+            return unitX[unit];
+        }
+        return index == units.first[unit] ? unitX[unit] - spacingX / 2f : unitX[unit] + spacingX / 2f;
+    }
+
+    private void applyPositions(List<TreeNode> nodes, Units units, float[] unitX, float spacingX, float spacingY) {
+        for (int u = 0; u < units.count; u++) {
+            float centerX = unitX[u];
+            int first = units.first[u];
+            int second = units.second[u];
+            if (second == -1) {
+                nodes.get(first).x = centerX;
+            } else {
+                nodes.get(first).x = centerX - spacingX / 2f;
+                nodes.get(second).x = centerX + spacingX / 2f;
+            }
+        }
+        for (TreeNode node : nodes) {
+            node.y = node.level * spacingY;
+        }
+    }
+
+    private Units buildUnits(List<TreeNode> nodes, Map<Long, Integer> indexById, int[] level, int rootIndex) {
+        int count = nodes.size();
+        Units units = new Units(count);
+        addUnitFor(units, nodes, indexById, level, rootIndex);
+        for (int i = 0; i < count; i++) {
+            if (units.unitOf[i] == -1) {
+                addUnitFor(units, nodes, indexById, level, i);
+            }
+        }
+        return units;
+    }
+
+    private void addUnitFor(Units units, List<TreeNode> nodes, Map<Long, Integer> indexById, int[] level, int index) {
+        Person person = nodes.get(index).person;
+        int spouse = indexOf(indexById, person.spouseId);
+        if (spouse != -1 && spouse != index && level[spouse] == level[index] && units.unitOf[spouse] == -1) {
+            units.add(index, spouse, level[index]);
+        } else {
+            units.add(index, -1, level[index]);
+        }
+    }
+
+    private int[] buildChildren(int[] mother, int[] father, int[] childStart) {
+        int count = mother.length;
+        for (int i = 0; i < count; i++) {
+            if (mother[i] != -1) {
+                childStart[mother[i] + 1]++;
+            }
+            if (father[i] != -1 && father[i] != mother[i]) {
+                childStart[father[i] + 1]++;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            childStart[i + 1] += childStart[i];
+        }
+        int[] fill = Arrays.copyOf(childStart, count);
+        int[] childList = new int[childStart[count]];
+        for (int i = 0; i < count; i++) {
+            if (mother[i] != -1) {
+                childList[fill[mother[i]]++] = i;
+            }
+            if (father[i] != -1 && father[i] != mother[i]) {
+                childList[fill[father[i]]++] = i;
+            }
+        }
+        return childList;
+    }
+
+    private int[] layoutDescendants(Units units,
+                                    int rootUnit,
+                                    int[] level,
+                                    int[] childStart,
+                                    int[] childList,
+                                    float spacingX,
+                                    float subtreeGap,
+                                    float[] unitX,
+                                    boolean[] placed) {
+        TidyTree tree = new TidyTree(units.count, subtreeGap);
+        int[] unitByTreeNode = new int[units.count];
+        placed[rootUnit] = true;
+        unitByTreeNode[tree.addNode(-1, units.width(rootUnit, spacingX))] = rootUnit;
+
+        for (int treeNode = 0; treeNode < tree.size(); treeNode++) {
+            int unit = unitByTreeNode[treeNode];
+            for (int m = 0; m < 2; m++) {
+                int member = m == 0 ? units.first[unit] : units.second[unit];
+                if (member == -1) {
+                    continue;
+                }
+                for (int k = childStart[member]; k < childStart[member + 1]; k++) {
+                    int child = childList[k];
+                    int childUnit = units.unitOf[child];
+                    if (placed[childUnit] || level[child] != units.level[unit] + 1) {
+                        continue;
+                    }
+                    placed[childUnit] = true;
+                    unitByTreeNode[tree.addNode(treeNode, units.width(childUnit, spacingX))] = childUnit;
+                }
+            }
+        }
+
+        tree.layout();
+        int[] order = new int[tree.size()];
+        for (int treeNode = 0; treeNode < tree.size(); treeNode++) {
+            int unit = unitByTreeNode[treeNode];
+            unitX[unit] = tree.x(treeNode);
+            order[treeNode] = unit;
+        }
+        return order;
+    }
+
+    private void layoutAncestors(Units units,
+                                 int anchorUnit,
+                                 int[] level,
+                                 int[] mother,
+                                 int[] father,
+                                 float spacingX,
+                                 float subtreeGap,
+                                 float[] unitX,
+                                 boolean[] placed) {
+        TidyTree tree = null;
+        int[] unitByTreeNode = null;
+        int pendingStart = 0;
+        int[] pending = new int[]{anchorUnit};
+        int pendingCount = 1;
+
+        while (pendingStart < pendingCount) {
+            int treeNode = pendingStart;
+            int unit = pending[pendingStart++];
+            for (int m = 0; m < 2; m++) {
+                int member = m == 0 ? units.first[unit] : units.second[unit];
+                if (member == -1) {
+                    continue;
+                }
+                for (int p = 0; p < 2; p++) {
+                    int parentIndex = p == 0 ? mother[member] : father[member];
+                    if (parentIndex == -1) {
+                        continue;
+                    }
+                    int parentUnit = units.unitOf[parentIndex];
+                    if (placed[parentUnit] || level[parentIndex] != units.level[unit] - 1) {
+                        continue;
+                    }
+                    if (tree == null) {
+                        tree = new TidyTree(8, subtreeGap);
+                        unitByTreeNode = new int[8];
+                        unitByTreeNode[tree.addNode(-1, units.width(anchorUnit, spacingX))] = anchorUnit;
+                    }
+                    placed[parentUnit] = true;
+                    int added = tree.addNode(treeNode, units.width(parentUnit, spacingX));
+                    if (added >= unitByTreeNode.length) {
+                        unitByTreeNode = Arrays.copyOf(unitByTreeNode, unitByTreeNode.length * 2);
+                    }
+                    unitByTreeNode[added] = parentUnit;
+                    if (pendingCount >= pending.length) {
+                        pending = Arrays.copyOf(pending, Math.max(8, pending.length * 2));
+                    }
+                    pending[pendingCount++] = parentUnit;
+                }
+            }
+        }
+
+        if (tree == null) {
+            return;
+        }
+        tree.layout();
+        float offset = unitX[anchorUnit] - tree.x(0);
+        for (int treeNode = 1; treeNode < tree.size(); treeNode++) {
+            unitX[unitByTreeNode[treeNode]] = tree.x(treeNode) + offset;
+        }
+    }
+
+    /**
+     * Pushes units apart level by level, outwards from x = 0. With {@code changed} set, only the
+     * levels holding a changed unit are swept.
+     */
+    private void resolveOverlaps(Units units, float[] unitX, float spacingX, boolean[] changed) {
+        int minLevel = Integer.MAX_VALUE;
+        int maxLevel = Integer.MIN_VALUE;
+        for (int u = 0; u < units.count; u++) {
+            minLevel = Math.min(minLevel, units.level[u]);
+            maxLevel = Math.max(maxLevel, units.level[u]);
+        }
+        int levels = maxLevel - minLevel + 1;
+        int[] levelStart = new int[levels + 1];
+        for (int u = 0; u < units.count; u++) {
+            levelStart[units.level[u] - minLevel + 1]++;
+        }
+        for (int l = 0; l < levels; l++) {
+            levelStart[l + 1] += levelStart[l];
+        }
+        int[] fill = Arrays.copyOf(levelStart, levels);
+        int[] byLevel = new int[units.count];
+        boolean[] sweep = new boolean[levels];
+        for (int u = 0; u < units.count; u++) {
+            byLevel[fill[units.level[u] - minLevel]++] = u;
+            sweep[units.level[u] - minLevel] |= changed == null || changed[u];
+        }
+
+        for (int l = 0; l < levels; l++) {
+            if (!sweep[l]) {
+                continue;
+            }
+            int start = levelStart[l];
+            int end = levelStart[l + 1];
+            sortByX(byLevel, start, end, unitX);
+            int pivot = start;
+            while (pivot < end - 1 && unitX[byLevel[pivot]] < 0f) {
+                pivot++;
+            }
+            for (int k = pivot + 1; k < end; k++) {
+                int prev = byLevel[k - 1];
+                int unit = byLevel[k];
+                float min = unitX[prev] + (units.width(prev, spacingX) + units.width(unit, spacingX)) / 2f;
+                if (unitX[unit] < min) {
+                    unitX[unit] = min;
+                }
+            }
+            for (int k = pivot - 1; k >= start; k--) {
+                int next = byLevel[k + 1];
+                int unit = byLevel[k];
+                float max = unitX[next] - (units.width(next, spacingX) + units.width(unit, spacingX)) / 2f;
+                if (unitX[unit] > max) {
+                    unitX[unit] = max;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts {@code items[start, end)} by x, keeping the current order for equal x. Each item's x and
+     * position are packed into one long so a primitive sort does the work.
+     */
+    private void sortByX(int[] items, int start, int end, float[] unitX) {
+        int count = end - start;
+        if (count < 2) {
+            return;
+        }
+        long[] keys = new long[count];
+        for (int k = 0; k < count; k++) {
+            keys[k] = ((long) sortableBits(unitX[items[start + k]]) << 32) | k;
+        }
+        Arrays.sort(keys);
+        int[] original = Arrays.copyOfRange(items, start, end);
+        for (int k = 0; k < count; k++) {
+            items[start + k] = original[(int) keys[k]];
+        }
+    }
+
+    /**
+     * Float bits reordered so that comparing them as ints compares the floats.
+     */
+    private static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    private int indexOf(Map<Long, Integer> indexById, Long id) {
+        if (id == null) {
+            return -1;
+        }
+        Integer index = indexById.get(id);
+        return index == null ? -1 : index;
+    }
+
+    private static final class Units {
+        final int[] unitOf;
+        final int[] first;
+        final int[] second;
+        final int[] level;
+        int count;
+
+        Units(int nodeCount) {
+            unitOf = new int[nodeCount];
+            first = new int[nodeCount];
+            second = new int[nodeCount];
+            level = new int[nodeCount];
+            Arrays.fill(unitOf, -1);
+        }
+
+        void add(int firstIndex, int secondIndex, int unitLevel) {
+            int unit = count++;
+            first[unit] = firstIndex;
+            second[unit] = secondIndex;
+            level[unit] = unitLevel;
+            unitOf[firstIndex] = unit;
+            if (secondIndex != -1) {
+                unitOf[secondIndex] = unit;
+            }
+        }
+
+        float width(int unit, float spacingX) {
+            return second[unit] == -1 ? spacingX : spacingX * 2f;
+        }
+    }
+}
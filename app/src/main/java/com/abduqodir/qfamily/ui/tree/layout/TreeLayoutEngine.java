@@ -0,0 +1,15 @@
+package com.abduqodir.qfamily.ui.tree.layout;
+
+import com.abduqodir.qfamily.ui.tree.model.TreeNode;
+import java.util.List;
+
+public interface TreeLayoutEngine {
+    void layout(List<TreeNode> nodes, TreeNode root, float spacingX, float spacingY);
+
+    /**
+     * Lays out {@code nodes} after a small change: nodes flagged in {@code kept} arrive with their
+     * previous x and keep it where nothing new lands next to them, the others are placed beside their
+     * relatives. Only the levels that changed are adjusted.
+     */
+    void relayout(List<TreeNode> nodes, TreeNode root, boolean[] kept, float spacingX, float spacingY);
+}
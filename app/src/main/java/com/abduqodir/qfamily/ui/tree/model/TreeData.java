@@ -1,14 +1,190 @@
 package com.abduqodir.qfamily.ui.tree.model;
 
+import com.abduqodir.qfamily.data.Person;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Laid-out tree packed into parallel arrays, one slot per node. Drawing reads positions, initials,
+ * labels and photo URIs through the index accessors; the {@code Person} rows are kept only for
+ * {@link #person(int)}, which detail screens and tap handling use. Neither the {@link TreeNode}s nor
+ * the {@link TreeEdge}s passed in are kept. Node indices match positions in the list passed in.
+ */
 public class TreeData {
-    public final List<TreeNode> nodes;
-    public final List<TreeEdge> edges;
+    public final TreeGraph graph;
+
+    private final long[] ids;
+    private final float[] xs;
+    private final float[] ys;
+    private final int[] levels;
+    private final Person[] people;
+    private final String[] initials;
+    private final String[] labels;
+    private final String[] photoUris;
+    private final long[] sortedIds;
+    private final int[] sortedIndex;
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
 
     public TreeData(List<TreeNode> nodes, List<TreeEdge> edges) {
-        this.nodes = nodes;
-        this.edges = edges;
+        int count = nodes.size();
+        ids = new long[count];
+        xs = new float[count];
+        ys = new float[count];
+        levels = new int[count];
+        for (int i = 0; i < count; i++) {
+            TreeNode node = nodes.get(i);
+            ids[i] = node.person.id;
+            xs[i] = node.x;
+            ys[i] = node.y;
+            levels[i] = node.level;
+        }
+        people = new Person[count];
+        initials = new String[count];
+        labels = new String[count];
+        photoUris = new String[count];
+        packLabels(nodes);
+        sortedIds = ids.clone();
+        Arrays.sort(sortedIds);
+        sortedIndex = new int[count];
+        for (int i = 0; i < count; i++) {
+            sortedIndex[Arrays.binarySearch(sortedIds, ids[i])] = i;
+        }
+
+        int[] from = new int[edges.size()];
+        int[] to = new int[edges.size()];
+        int edgeCount = 0;
+        for (TreeEdge edge : edges) {
+            int a = indexOf(edge.fromId);
+            int b = indexOf(edge.toId);
+            if (a >= 0 && b >= 0) {
+                from[edgeCount] = a;
+                to[edgeCount] = b;
+                edgeCount++;
+            }
+        }
+        edgeFrom = Arrays.copyOf(from, edgeCount);
+        edgeTo = Arrays.copyOf(to, edgeCount);
+        graph = TreeGraph.build(xs, levels, edgeFrom, edgeTo);
+    }
+
+    /**
+     * Same people, positions and edges as {@code layout}, with {@code nodes} standing in for its
+     * nodes index for index. The packed arrays and graph are shared rather than rebuilt.
+     */
+    public TreeData(List<TreeNode> nodes, TreeData layout) {
+        if (nodes.size() != layout.size()) {
+            throw new IllegalArgumentException("Expected " + layout.size() + " nodes, got " + nodes.size());
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i).person.id != layout.ids[i]) {
+                throw new IllegalArgumentException("Node " + i + " is not person " + layout.ids[i]);
+            }
+        }
+        ids = layout.ids;
+        xs = layout.xs;
+        ys = layout.ys;
+        levels = layout.levels;
+        people = new Person[nodes.size()];
+        initials = new String[nodes.size()];
+        labels = new String[nodes.size()];
+        photoUris = new String[nodes.size()];
+        packLabels(nodes);
+        sortedIds = layout.sortedIds;
+        sortedIndex = layout.sortedIndex;
+        edgeFrom = layout.edgeFrom;
+        edgeTo = layout.edgeTo;
+        graph = layout.graph;
+    }
+
+    private void packLabels(List<TreeNode> nodes) {
+        for (int i = 0; i < people.length; i++) {
+            TreeNode node = nodes.get(i);
+            people[i] = node.person;
+            initials[i] = node.initials;
+            labels[i] = node.fullName;
+            String photoUri = node.person.photoUri;
+            photoUris[i] = photoUri != null && !photoUri.trim().isEmpty() ? photoUri : null;
+        }
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Index of the person's node, or -1.
+     */
+    public int indexOf(long personId) {
+        int position = Arrays.binarySearch(sortedIds, personId);
+        return position >= 0 ? sortedIndex[position] : -1;
+    }
+
+    public long id(int index) {
+        return ids[index];
+    }
+
+    public float x(int index) {
+        return xs[index];
     }
-}
 
+    public float y(int index) {
+        return ys[index];
+    }
+
+    public int level(int index) {
+        return levels[index];
+    }
+
+    public Person person(int index) {
+        return people[index];
+    }
+
+    public String initials(int index) {
+        return initials[index];
+    }
+
+    public String label(int index) {
+        return labels[index];
+    }
+
+    /**
+     * The node's photo URI, or null when the person has none.
+     */
+    public String photoUri(int index) {
+        return photoUris[index];
+    }
+
+    public boolean hasPhoto(int index) {
+        return photoUris[index] != null;
+    }
+
+    public int edgeCount() {
+        return edgeFrom.length;
+    }
+
+    /**
+     * True when both trees hold the same people at the same indices, on the same levels and with
+     * the same edges, so index-based caches built for one stay valid for the other.
+     */
+    public boolean hasSameStructure(TreeData other) {
+        return other != null && Arrays.equals(ids, other.ids) && Arrays.equals(levels, other.levels)
+                && Arrays.equals(edgeFrom, other.edgeFrom) && Arrays.equals(edgeTo, other.edgeTo);
+    }
+
+    /**
+     * True when every node sits where it sits in {@code other}; only meaningful for trees with the
+     * same structure.
+     */
+    public boolean hasSamePositions(TreeData other) {
+        return other != null && Arrays.equals(xs, other.xs) && Arrays.equals(ys, other.ys);
+    }
+
+    public int edgeFrom(int edge) {
+        return edgeFrom[edge];
+    }
+
+    public int edgeTo(int edge) {
+        return edgeTo[edge];
+    }
+}
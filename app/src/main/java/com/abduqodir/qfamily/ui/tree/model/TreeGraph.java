@@ -0,0 +1,264 @@
+package com.abduqodir.qfamily.ui.tree.model;
+
+import com.abduqodir.qfamily.util.LongIntMap;
+import com.abduqodir.qfamily.util.PairKey;
+import java.util.Arrays;
+
+/**
+ * Immutable adjacency index over the nodes of a {@link TreeData}, built once per layout. Nodes are
+ * referred to by their index in the tree data; every relation is stored as offset and value arrays
+ * so walking it allocates nothing. Couples are parent pairs sharing at least one child; spouse
+ * pairs are spouse links without shared children.
+ */
+public final class TreeGraph {
+    public final int nodeCount;
+    public final int coupleCount;
+    public final int spousePairCount;
+
+    private final int[] parentStart;
+    private final int[] parents;
+    private final int[] childStart;
+    private final int[] children;
+    private final int[] spouseStart;
+    private final int[] spouses;
+    private final int[] coupleOfChild;
+    private final int[] coupleLeft;
+    private final int[] coupleRight;
+    private final int[] coupleChildStart;
+    private final int[] coupleChildren;
+    private final int[] spousePairFirst;
+    private final int[] spousePairSecond;
+
+    private TreeGraph(Builder builder) {
+        nodeCount = builder.nodeCount;
+        coupleCount = builder.coupleCount;
+        spousePairCount = builder.spousePairCount;
+        parentStart = builder.parentStart;
+        parents = builder.parents;
+        childStart = builder.childStart;
+        children = builder.children;
+        spouseStart = builder.spouseStart;
+        spouses = builder.spouses;
+        coupleOfChild = builder.coupleOfChild;
+        coupleLeft = builder.coupleLeft;
+        coupleRight = builder.coupleRight;
+        coupleChildStart = builder.coupleChildStart;
+        coupleChildren = builder.coupleChildren;
+        spousePairFirst = builder.spousePairFirst;
+        spousePairSecond = builder.spousePairSecond;
+    }
+
+    /**
+     * Builds the index from laid-out node arrays and index-based edges; couple sides are ordered by
+     * x. Edges between nodes on the same level are spouse links, all others run parent to child.
+     */
+    static TreeGraph build(float[] xs, int[] levels, int[] edgeFrom, int[] edgeTo) {
+        return new Builder(xs, levels, edgeFrom, edgeTo).build();
+    }
+
+    public int parentCount(int node) {
+        return parentStart[node + 1] - parentStart[node];
+    }
+
+    public int parent(int node, int i) {
+        return parents[parentStart[node] + i];
+    }
+
+    public int childCount(int node) {
+        return childStart[node + 1] - childStart[node];
+    }
+
+    public int child(int node, int i) {
+        return children[childStart[node] + i];
+    }
+
+    public int spouseCount(int node) {
+        return spouseStart[node + 1] - spouseStart[node];
+    }
+
+    public int spouse(int node, int i) {
+        return spouses[spouseStart[node] + i];
+    }
+
+    /**
+     * Couple the node descends from, or -1 when it has fewer than two parents in the tree.
+     */
+    public int coupleOf(int child) {
+        return coupleOfChild[child];
+    }
+
+    public int coupleLeft(int couple) {
+        return coupleLeft[couple];
+    }
+
+    public int coupleRight(int couple) {
+        return coupleRight[couple];
+    }
+
+    public int coupleChildCount(int couple) {
+        return coupleChildStart[couple + 1] - coupleChildStart[couple];
+    }
+
+    public int coupleChild(int couple, int i) {
+        return coupleChildren[coupleChildStart[couple] + i];
+    }
+
+    public int spousePairFirst(int pair) {
+        return spousePairFirst[pair];
+    }
+
+    public int spousePairSecond(int pair) {
+        return spousePairSecond[pair];
+    }
+
+    private static final class Builder {
+        final float[] xs;
+        final int[] levels;
+        final int[] edgeFrom;
+        final int[] edgeTo;
+        final int nodeCount;
+        int[] parentStart;
+        int[] parents;
+        int[] childStart;
+        int[] children;
+        int[] spouseStart;
+        int[] spouses;
+        int[] coupleOfChild;
+        int coupleCount;
+        int[] coupleLeft;
+        int[] coupleRight;
+        int[] coupleChildStart;
+        int[] coupleChildren;
+        int spousePairCount;
+        int[] spousePairFirst;
+        int[] spousePairSecond;
+
+        Builder(float[] xs, int[] levels, int[] edgeFrom, int[] edgeTo) {
+            this.xs = xs;
+            this.levels = levels;
+            this.edgeFrom = edgeFrom;
+            this.edgeTo = edgeTo;
+            this.nodeCount = xs.length;
+        }
+
+        TreeGraph build() {
+            int edgeCount = edgeFrom.length;
+            int[] from = new int[edgeCount];
+            int[] to = new int[edgeCount];
+            boolean[] spouseLink = new boolean[edgeCount];
+            int[] parentCounts = new int[nodeCount + 1];
+            int[] childCounts = new int[nodeCount + 1];
+            int[] spouseCounts = new int[nodeCount + 1];
+            for (int e = 0; e < edgeCount; e++) {
+                int a = edgeFrom[e];
+                int b = edgeTo[e];
+                int levelA = levels[a];
+                int levelB = levels[b];
+                if (levelA == levelB) {
+                    spouseLink[e] = true;
+                    from[e] = a;
+                    to[e] = b;
+                    spouseCounts[a + 1]++;
+                    spouseCounts[b + 1]++;
+                } else {
+                    from[e] = levelA < levelB ? a : b;
+                    to[e] = levelA < levelB ? b : a;
+                    childCounts[from[e] + 1]++;
+                    parentCounts[to[e] + 1]++;
+                }
+            }
+            parentStart = prefixSums(parentCounts);
+            childStart = prefixSums(childCounts);
+            spouseStart = prefixSums(spouseCounts);
+            parents = new int[parentStart[nodeCount]];
+            children = new int[childStart[nodeCount]];
+            spouses = new int[spouseStart[nodeCount]];
+            int[] parentFill = Arrays.copyOf(parentStart, nodeCount);
+            int[] childFill = Arrays.copyOf(childStart, nodeCount);
+            int[] spouseFill = Arrays.copyOf(spouseStart, nodeCount);
+            for (int e = 0; e < edgeCount; e++) {
+                if (spouseLink[e]) {
+                    spouses[spouseFill[from[e]]++] = to[e];
+                    spouses[spouseFill[to[e]]++] = from[e];
+                } else {
+                    children[childFill[from[e]]++] = to[e];
+                    parents[parentFill[to[e]]++] = from[e];
+                }
+            }
+            LongIntMap couples = buildCouples();
+            buildSpousePairs(couples);
+            return new TreeGraph(this);
+        }
+
+        /**
+         * Groups children with two distinct parents by that pair; a third parent is ignored.
+         */
+        private LongIntMap buildCouples() {
+            LongIntMap coupleByPair = new LongIntMap(nodeCount);
+            coupleOfChild = new int[nodeCount];
+            Arrays.fill(coupleOfChild, -1);
+            int[] left = new int[nodeCount];
+            int[] right = new int[nodeCount];
+            int[] counts = new int[nodeCount + 1];
+            for (int child = 0; child < nodeCount; child++) {
+                int first = parentStart[child] < parentStart[child + 1] ? parents[parentStart[child]] : -1;
+                int second = -1;
+                for (int k = parentStart[child] + 1; k < parentStart[child + 1]; k++) {
+                    if (parents[k] != first) {
+                        second = parents[k];
+                        break;
+                    }
+                }
+                if (second < 0) {
+                    continue;
+                }
+                long pair = PairKey.of(first, second);
+                int couple = coupleByPair.get(pair, -1);
+                if (couple < 0) {
+                    couple = coupleCount++;
+                    coupleByPair.put(pair, couple);
+                    boolean firstIsLeft = xs[first] <= xs[second];
+                    left[couple] = firstIsLeft ? first : second;
+                    right[couple] = firstIsLeft ? second : first;
+                }
+                coupleOfChild[child] = couple;
+                counts[couple + 1]++;
+            }
+            coupleLeft = Arrays.copyOf(left, coupleCount);
+            coupleRight = Arrays.copyOf(right, coupleCount);
+            coupleChildStart = prefixSums(Arrays.copyOf(counts, coupleCount + 1));
+            coupleChildren = new int[coupleChildStart[coupleCount]];
+            int[] fill = Arrays.copyOf(coupleChildStart, coupleCount);
+            for (int child = 0; child < nodeCount; child++) {
+                if (coupleOfChild[child] >= 0) {
+                    coupleChildren[fill[coupleOfChild[child]]++] = child;
+                }
+            }
+            return coupleByPair;
+        }
+
+        private void buildSpousePairs(LongIntMap couples) {
+            int[] first = new int[spouses.length / 2];
+            int[] second = new int[spouses.length / 2];
+            for (int node = 0; node < nodeCount; node++) {
+                for (int k = spouseStart[node]; k < spouseStart[node + 1]; k++) {
+                    int spouse = spouses[k];
+                    if (node < spouse && !couples.containsKey(PairKey.of(node, spouse))) {
+                        first[spousePairCount] = node;
+                        second[spousePairCount] = spouse;
+                        spousePairCount++;
+                    }
+                }
+            }
+            spousePairFirst = Arrays.copyOf(first, spousePairCount);
+            spousePairSecond = Arrays.copyOf(second, spousePairCount);
+        }
+
+        private static int[] prefixSums(int[] counts) {
+            for (int i = 1; i < counts.length; i++) {
+                counts[i] += counts[i - 1];
+            }
+            return counts;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.abduqodir.qfamily.ui.tree.render;
+
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.graphics.RenderNode;
+import android.os.Build;
+
+/**
+ * Recorded display list for a rectangle of world space. Uses a {@link RenderNode} on API 29+ and a
+ * {@link Picture} below; either way replaying it under a new pan or zoom costs one draw call.
+ */
+public final class LayerCache {
+    public interface Recorder {
+        void record(Canvas canvas);
+    }
+
+    private RenderNode renderNode;
+    private Picture picture;
+    private boolean valid;
+    private float left;
+    private float top;
+    private float right;
+    private float bottom;
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public boolean covers(float left, float top, float right, float bottom) {
+        return valid && left >= this.left && top >= this.top
+                && right <= this.right && bottom <= this.bottom;
+    }
+
+    /**
+     * Records {@code recorder} for the given world rectangle; the canvas it receives is already in
+     * world coordinates.
+     */
+    public void record(float left, float top, float right, float bottom, Recorder recorder) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        int width = Math.max(1, (int) Math.ceil(right - left));
+        int height = Math.max(1, (int) Math.ceil(bottom - top));
+        Canvas canvas;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            if (renderNode == null) {
+                renderNode = new RenderNode("FamilyTreeLayer");
+                renderNode.setClipToBounds(false);
+            }
+            renderNode.setPosition(0, 0, width, height);
+            canvas = renderNode.beginRecording(width, height);
+        } else {
+            picture = new Picture();
+            canvas = picture.beginRecording(width, height);
+        }
+        try {
+            canvas.translate(-left, -top);
+            recorder.record(canvas);
+        } finally {
+            if (renderNode != null) {
+                renderNode.endRecording();
+            } else {
+                picture.endRecording();
+            }
+        }
+        valid = true;
+    }
+
+    /**
+     * Replays the layer into a canvas that is already in world coordinates.
+     */
+    public void draw(Canvas canvas) {
+        if (!valid) {
+            return;
+        }
+        canvas.save();
+        canvas.translate(left, top);
+        if (renderNode != null) {
+            canvas.drawRenderNode(renderNode);
+        } else {
+            canvas.drawPicture(picture);
+        }
+        canvas.restore();
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
+
+    public void release() {
+        valid = false;
+        if (renderNode != null) {
+            renderNode.discardDisplayList();
+        }
+        picture = null;
+    }
+}
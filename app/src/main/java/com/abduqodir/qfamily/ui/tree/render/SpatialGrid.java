@@ -0,0 +1,150 @@
+package com.abduqodir.qfamily.ui.tree.render;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over axis-aligned item bounds. Items are plain int indices owned by the caller;
+ * queries fill an internal buffer so culling and hit-testing allocate nothing per frame.
+ */
+public final class SpatialGrid {
+    private static final int MAX_CELLS_PER_ITEM = 4;
+
+    private final float preferredCellSize;
+    private float cellSize;
+    private float originX;
+    private float originY;
+    private float extentX;
+    private float extentY;
+    private int columns;
+    private int rows;
+    private int itemCount;
+    private int[] cellStart = new int[1];
+    private int[] cellItems = new int[0];
+    private int[] visitStamp = new int[0];
+    private int stamp;
+    private int[] results = new int[16];
+    private int resultCount;
+
+    public SpatialGrid(float cellSize) {
+        this.preferredCellSize = Math.max(1f, cellSize);
+        this.cellSize = this.preferredCellSize;
+    }
+
+    public void build(int count, float[] minX, float[] minY, float[] maxX, float[] maxY) {
+        itemCount = count;
+        resultCount = 0;
+        if (count == 0) {
+            columns = 0;
+            rows = 0;
+            cellStart = new int[1];
+            cellItems = new int[0];
+            visitStamp = new int[0];
+            return;
+        }
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            left = Math.min(left, minX[i]);
+            top = Math.min(top, minY[i]);
+            right = Math.max(right, maxX[i]);
+            bottom = Math.max(bottom, maxY[i]);
+        }
+        originX = left;
+        originY = top;
+        extentX = right;
+        extentY = bottom;
+        cellSize = preferredCellSize;
+        long maxCells = Math.max(64L, (long) count * MAX_CELLS_PER_ITEM);
+        while (cellCount(right - left, bottom - top) > maxCells) {
+            cellSize *= 2f;
+        }
+        columns = Math.max(1, (int) Math.ceil((right - left) / cellSize) + 1);
+        rows = Math.max(1, (int) Math.ceil((bottom - top) / cellSize) + 1);
+
+        int cells = columns * rows;
+        cellStart = new int[cells + 1];
+        for (int i = 0; i < count; i++) {
+            int c0 = column(minX[i]);
+            int c1 = column(maxX[i]);
+            int r0 = row(minY[i]);
+            int r1 = row(maxY[i]);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    cellStart[r * columns + c + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < cells; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        cellItems = new int[cellStart[cells]];
+        int[] fill = Arrays.copyOf(cellStart, cells);
+        for (int i = 0; i < count; i++) {
+            int c0 = column(minX[i]);
+            int c1 = column(maxX[i]);
+            int r0 = row(minY[i]);
+            int r1 = row(maxY[i]);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    cellItems[fill[r * columns + c]++] = i;
+                }
+            }
+        }
+        visitStamp = new int[count];
+        stamp = 0;
+    }
+
+    public int query(float left, float top, float right, float bottom) {
+        resultCount = 0;
+        if (itemCount == 0 || right < originX || bottom < originY || left > extentX || top > extentY) {
+            return 0;
+        }
+        int c0 = column(left);
+        int c1 = column(right);
+        int r0 = row(top);
+        int r1 = row(bottom);
+        if (++stamp == 0) {
+            Arrays.fill(visitStamp, 0);
+            stamp = 1;
+        }
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * columns + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int item = cellItems[k];
+                    if (visitStamp[item] == stamp) {
+                        continue;
+                    }
+                    visitStamp[item] = stamp;
+                    if (resultCount == results.length) {
+                        results = Arrays.copyOf(results, resultCount * 2);
+                    }
+                    results[resultCount++] = item;
+                }
+            }
+        }
+        return resultCount;
+    }
+
+    public int resultAt(int index) {
+        return results[index];
+    }
+
+    private long cellCount(float width, float height) {
+        long cols = (long) Math.ceil(width / cellSize) + 1;
+        long rowCount = (long) Math.ceil(height / cellSize) + 1;
+        return cols * rowCount;
+    }
+
+    private int column(float x) {
+        int c = (int) Math.floor((x - originX) / cellSize);
+        return Math.max(0, Math.min(columns - 1, c));
+    }
+
+    private int row(float y) {
+        int r = (int) Math.floor((y - originY) / cellSize);
+        return Math.max(0, Math.min(rows - 1, r));
+    }
+}
@@ -0,0 +1,208 @@
+package com.abduqodir.qfamily.ui.tree.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rasterises square world-space tiles at power-of-two zoom levels on a background thread and keeps
+ * them in an LRU cache. All public methods are called on the main thread; the painter is only ever
+ * used by the worker, so it must not share mutable state with the UI.
+ */
+public final class TileRenderer {
+    public static final int TILE_SIZE_PX = 256;
+    private static final int MIN_ZOOM = -4;
+    private static final int MAX_ZOOM = 2;
+    private static final int MAX_QUEUED = 64;
+    private static final int COORD_BITS = 28;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+
+    public interface Painter {
+        /**
+         * Draws the world rectangle into {@code canvas}, which already maps world coordinates onto
+         * the tile at {@code scale}.
+         */
+        void paint(Canvas canvas, float left, float top, float right, float bottom, float scale);
+    }
+
+    public interface Listener {
+        void onTileReady();
+    }
+
+    private final LruCache<Long, Bitmap> tiles;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayDeque<long[]> queue = new ArrayDeque<>();
+    private final Set<Long> queuedKeys = new HashSet<>();
+    private final Thread worker;
+    private volatile Painter painter;
+    private volatile int generation;
+    private volatile boolean released;
+
+    public TileRenderer(long maxBytes, Listener listener) {
+        this.listener = listener;
+        this.tiles = new LruCache<Long, Bitmap>((int) Math.min(Integer.MAX_VALUE, maxBytes / 1024)) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getByteCount() / 1024;
+            }
+        };
+        worker = new Thread(this::workLoop, "tree-tiles");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Nearest power-of-two zoom level for a view scale; tiles are rendered at that level and
+     * stretched by at most a factor of sqrt(2).
+     */
+    public static int zoomLevelFor(float scale) {
+        int level = Math.round((float) (Math.log(scale) / Math.log(2)));
+        return Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, level));
+    }
+
+    public static float scaleForZoomLevel(int zoom) {
+        return (float) Math.pow(2, zoom);
+    }
+
+    public static float tileWorldSize(int zoom) {
+        return TILE_SIZE_PX / scaleForZoomLevel(zoom);
+    }
+
+    /**
+     * Replaces what tiles are drawn from. Cached tiles stay valid until invalidated; renders started
+     * with the previous painter are discarded.
+     */
+    public void setPainter(Painter painter) {
+        this.painter = painter;
+        generation++;
+        clearQueue();
+    }
+
+    public Bitmap getTile(int zoom, int column, int row) {
+        return tiles.get(key(zoom, column, row));
+    }
+
+    public void requestTile(int zoom, int column, int row) {
+        long key = key(zoom, column, row);
+        synchronized (queue) {
+            if (!queuedKeys.add(key)) {
+                return;
+            }
+            queue.addFirst(new long[] {key, zoom, column, row, generation});
+            while (queue.size() > MAX_QUEUED) {
+                queuedKeys.remove(queue.pollLast()[0]);
+            }
+            queue.notify();
+        }
+    }
+
+    /**
+     * Drops every cached tile, at any zoom level, that overlaps the world rectangle.
+     */
+    public void invalidateRegion(float left, float top, float right, float bottom) {
+        generation++;
+        clearQueue();
+        for (Map.Entry<Long, Bitmap> entry : tiles.snapshot().entrySet()) {
+            long key = entry.getKey();
+            int zoom = (int) (key >>> (COORD_BITS * 2)) + MIN_ZOOM;
+            float size = tileWorldSize(zoom);
+            float tileLeft = coordinate(key >>> COORD_BITS) * size;
+            float tileTop = coordinate(key) * size;
+            if (tileLeft < right && tileLeft + size > left && tileTop < bottom && tileTop + size > top) {
+                tiles.remove(key);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        generation++;
+        clearQueue();
+        tiles.evictAll();
+    }
+
+    public void release() {
+        released = true;
+        painter = null;
+        invalidateAll();
+        worker.interrupt();
+    }
+
+    private void clearQueue() {
+        synchronized (queue) {
+            queue.clear();
+            queuedKeys.clear();
+        }
+    }
+
+    private void workLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        while (!released) {
+            long[] request;
+            synchronized (queue) {
+                while (queue.isEmpty()) {
+                    try {
+                        queue.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                request = queue.pollFirst();
+            }
+            Painter current = painter;
+            if (current == null || request[4] != generation) {
+                finish(request[0]);
+                continue;
+            }
+            Bitmap tile = render(current, (int) request[1], (int) request[2], (int) request[3]);
+            mainHandler.post(() -> {
+                finish(request[0]);
+                if (tile != null && request[4] == generation && !released) {
+                    tiles.put(request[0], tile);
+                    listener.onTileReady();
+                }
+            });
+        }
+    }
+
+    private void finish(long key) {
+        synchronized (queue) {
+            queuedKeys.remove(key);
+        }
+    }
+
+    private static Bitmap render(Painter painter, int zoom, int column, int row) {
+        float scale = scaleForZoomLevel(zoom);
+        float size = tileWorldSize(zoom);
+        float left = column * size;
+        float top = row * size;
+        try {
+            Bitmap tile = Bitmap.createBitmap(TILE_SIZE_PX, TILE_SIZE_PX, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(tile);
+            canvas.scale(scale, scale);
+            canvas.translate(-left, -top);
+            painter.paint(canvas, left, top, left + size, top + size, scale);
+            return tile;
+        } catch (RuntimeException | OutOfMemoryError e) {
+            return null;
+        }
+    }
+
+    private static long key(int zoom, int column, int row) {
+        return ((long) (zoom - MIN_ZOOM) << (COORD_BITS * 2))
+                | ((column & COORD_MASK) << COORD_BITS)
+                | (row & COORD_MASK);
+    }
+
+    private static int coordinate(long bits) {
+        int value = (int) (bits & COORD_MASK);
+        return value >= 1 << (COORD_BITS - 1) ? value - (1 << COORD_BITS) : value;
+    }
+}
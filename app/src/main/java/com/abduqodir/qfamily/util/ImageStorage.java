@@ -2,21 +2,66 @@ package com.abduqodir.qfamily.util;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.media.ExifInterface;
 import android.net.Uri;
-import android.webkit.MimeTypeMap;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
+/**
+ * Saved photos are stored as a set of JPEG renditions sharing one base name:
+ * {@code photo_<ts>.jpg} (capped original), {@code photo_<ts>_detail.jpg} and
+ * {@code photo_<ts>_avatar.jpg} (square crop). Only the original's URI is kept on the person;
+ * {@link #renditionFor(String, int)} maps it to the smallest rendition that still fits.
+ */
 public final class ImageStorage {
     private static final String DIR_NAME = "photos";
+    private static final String STAGING_DIR_NAME = "photo_import";
+    private static final String EXTENSION = ".jpg";
+    private static final String DETAIL_SUFFIX = "_detail";
+    private static final String AVATAR_SUFFIX = "_avatar";
+    private static final int JPEG_QUALITY = 88;
+    private static final long TRANSFER_CHUNK_BYTES = 512L * 1024;
+    private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+    private static final int COPIED_PERCENT = 70;
+    private static final int DECODED_PERCENT = 85;
+
+    public static final int AVATAR_SIZE_PX = 256;
+    public static final int DETAIL_SIZE_PX = 720;
+    public static final int ORIGINAL_MAX_PX = 2048;
 
     private ImageStorage() {
     }
 
+    public interface ProgressListener {
+        void onProgress(int percent);
+    }
+
     public static String persistImage(Context context, Uri sourceUri) throws IOException {
+        return persistImage(context, sourceUri, null, null);
+    }
+
+    /**
+     * Copies and re-encodes the picked image. Must run off the main thread; throws
+     * {@link OperationCanceledException} and removes any partial files once {@code signal} fires.
+     */
+    public static String persistImage(Context context,
+                                      Uri sourceUri,
+                                      ProgressListener listener,
+                                      CancellationSignal signal) throws IOException {
         if (context == null || sourceUri == null) {
             return null;
         }
@@ -24,31 +69,334 @@ public final class ImageStorage {
         if (!dir.exists() && !dir.mkdirs()) {
             return null;
         }
-        String extension = guessExtension(context.getContentResolver(), sourceUri);
-        if (extension == null) {
-            extension = "jpg";
+        File staged = stageSource(context, sourceUri, listener, signal);
+        if (staged == null) {
+            return null;
+        }
+        String baseName = "photo_" + System.currentTimeMillis();
+        File outFile = new File(dir, baseName + EXTENSION);
+        File detailFile = new File(dir, baseName + DETAIL_SUFFIX + EXTENSION);
+        File avatarFile = new File(dir, baseName + AVATAR_SUFFIX + EXTENSION);
+        boolean success = false;
+        try {
+            Bitmap original = decodeOriented(staged, ORIGINAL_MAX_PX);
+            if (original == null) {
+                return null;
+            }
+            try {
+                reportProgress(listener, DECODED_PERCENT);
+                throwIfCanceled(signal);
+                writeJpeg(original, outFile);
+                throwIfCanceled(signal);
+                Bitmap detail = scaleToFit(original, DETAIL_SIZE_PX);
+                writeJpeg(detail, detailFile);
+                if (detail != original) {
+                    detail.recycle();
+                }
+                throwIfCanceled(signal);
+                Bitmap avatar = cropSquare(original, AVATAR_SIZE_PX);
+                writeJpeg(avatar, avatarFile);
+                avatar.recycle();
+            } finally {
+                original.recycle();
+            }
+            reportProgress(listener, 100);
+            success = true;
+            return outFile.toURI().toString();
+        } finally {
+            staged.delete();
+            if (!success) {
+                outFile.delete();
+                detailFile.delete();
+                avatarFile.delete();
+            }
         }
-        File outFile = new File(dir, "photo_" + System.currentTimeMillis() + "." + extension);
-        try (InputStream input = context.getContentResolver().openInputStream(sourceUri);
-             OutputStream output = new FileOutputStream(outFile)) {
+    }
+
+    /**
+     * Decodes a small, orientation-corrected preview straight from the picked source.
+     */
+    public static Bitmap decodePreview(Context context, Uri sourceUri, int sizePx) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream input = resolver.openInputStream(sourceUri)) {
             if (input == null) {
                 return null;
             }
-            byte[] buffer = new byte[8192];
-            int len;
-            while ((len = input.read(buffer)) != -1) {
-                output.write(buffer, 0, len);
+            BitmapFactory.decodeStream(input, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = sampleSizeFor(Math.min(options.outWidth, options.outHeight), sizePx);
+        options.inJustDecodeBounds = false;
+        Bitmap decoded;
+        try (InputStream input = resolver.openInputStream(sourceUri)) {
+            if (input == null) {
+                return null;
             }
+            decoded = BitmapFactory.decodeStream(input, null, options);
         }
-        return outFile.toURI().toString();
+        if (decoded == null) {
+            return null;
+        }
+        int orientation = ExifInterface.ORIENTATION_NORMAL;
+        try (InputStream input = resolver.openInputStream(sourceUri)) {
+            if (input != null) {
+                orientation = new ExifInterface(input)
+                        .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            }
+        } catch (IOException e) {
+            orientation = ExifInterface.ORIENTATION_NORMAL;
+        }
+        return applyMatrix(decoded, orientationMatrix(orientation));
     }
 
-    private static String guessExtension(ContentResolver resolver, Uri uri) {
-        String mime = resolver.getType(uri);
-        if (mime == null) {
+    /**
+     * Returns the URI of the smallest rendition whose long edge is at least {@code sizePx}, or the
+     * original URI for photos saved before renditions existed.
+     */
+    public static String renditionFor(String photoUri, int sizePx) {
+        File original = localFile(photoUri);
+        String baseName = original != null ? baseName(original) : null;
+        if (baseName == null) {
+            return photoUri;
+        }
+        String suffix = null;
+        if (sizePx <= AVATAR_SIZE_PX) {
+            suffix = AVATAR_SUFFIX;
+        } else if (sizePx <= DETAIL_SIZE_PX) {
+            suffix = DETAIL_SUFFIX;
+        }
+        if (suffix != null) {
+            File rendition = new File(original.getParentFile(), baseName + suffix + EXTENSION);
+            if (rendition.isFile()) {
+                return rendition.toURI().toString();
+            }
+        }
+        return photoUri;
+    }
+
+    public static void deleteImage(String photoUri) {
+        File original = localFile(photoUri);
+        if (original == null) {
+            return;
+        }
+        String baseName = baseName(original);
+        if (baseName != null) {
+            new File(original.getParentFile(), baseName + DETAIL_SUFFIX + EXTENSION).delete();
+            new File(original.getParentFile(), baseName + AVATAR_SUFFIX + EXTENSION).delete();
+        }
+        original.delete();
+    }
+
+    private static File localFile(String photoUri) {
+        if (photoUri == null) {
+            return null;
+        }
+        Uri uri = Uri.parse(photoUri);
+        if (!"file".equals(uri.getScheme()) || uri.getPath() == null) {
             return null;
         }
-        return MimeTypeMap.getSingleton().getExtensionFromMimeType(mime);
+        return new File(uri.getPath());
+    }
+
+    private static String baseName(File original) {
+        String name = original.getName();
+        if (!name.endsWith(EXTENSION)) {
+            return null;
+        }
+        return name.substring(0, name.length() - EXTENSION.length());
     }
-}
 
+    private static File stageSource(Context context,
+                                    Uri sourceUri,
+                                    ProgressListener listener,
+                                    CancellationSignal signal) throws IOException {
+        File stagingDir = new File(context.getCacheDir(), STAGING_DIR_NAME);
+        if (!stagingDir.exists() && !stagingDir.mkdirs()) {
+            return null;
+        }
+        File staged = File.createTempFile("import_", ".tmp", stagingDir);
+        boolean success = false;
+        try (AssetFileDescriptor descriptor = context.getContentResolver().openAssetFileDescriptor(sourceUri, "r")) {
+            if (descriptor == null) {
+                return null;
+            }
+            long length = descriptor.getLength();
+            try (FileInputStream input = descriptor.createInputStream();
+                 FileOutputStream output = new FileOutputStream(staged)) {
+                if (length != AssetFileDescriptor.UNKNOWN_LENGTH) {
+                    transferFile(input.getChannel(), output.getChannel(), length, listener, signal);
+                } else {
+                    copyStream(input, output, signal);
+                }
+            }
+            success = true;
+            return staged;
+        } finally {
+            if (!success) {
+                staged.delete();
+            }
+        }
+    }
+
+    private static void transferFile(FileChannel input,
+                                     FileChannel output,
+                                     long length,
+                                     ProgressListener listener,
+                                     CancellationSignal signal) throws IOException {
+        long start = input.position();
+        long copied = 0L;
+        while (copied < length) {
+            throwIfCanceled(signal);
+            long transferred = input.transferTo(start + copied, Math.min(TRANSFER_CHUNK_BYTES, length - copied), output);
+            if (transferred <= 0) {
+                break;
+            }
+            copied += transferred;
+            reportProgress(listener, (int) (copied * COPIED_PERCENT / length));
+        }
+    }
+
+    private static void copyStream(InputStream input, OutputStream output, CancellationSignal signal) throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_BYTES];
+        int len;
+        while ((len = input.read(buffer)) != -1) {
+            throwIfCanceled(signal);
+            output.write(buffer, 0, len);
+        }
+    }
+
+    private static Bitmap decodeOriented(File file, int maxPx) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSizeFor(Math.max(options.outWidth, options.outHeight), maxPx * 3 / 4);
+        Bitmap decoded = BitmapFactory.decodeFile(file.getPath(), options);
+        if (decoded == null) {
+            return null;
+        }
+        int orientation = new ExifInterface(file.getPath())
+                .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        Matrix matrix = orientationMatrix(orientation);
+        float scale = Math.min(1f, (float) maxPx / Math.max(decoded.getWidth(), decoded.getHeight()));
+        if (scale < 1f) {
+            matrix.postScale(scale, scale);
+        }
+        return applyMatrix(decoded, matrix);
+    }
+
+    private static int sampleSizeFor(int edge, int minEdge) {
+        int sampleSize = 1;
+        while (edge / (sampleSize * 2) >= minEdge) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static Bitmap applyMatrix(Bitmap source, Matrix matrix) {
+        if (matrix.isIdentity()) {
+            return source;
+        }
+        Bitmap transformed = Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+        if (transformed != source) {
+            source.recycle();
+        }
+        return transformed;
+    }
+
+    private static Matrix orientationMatrix(int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1f, 1f);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180f);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1f, -1f);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90f);
+                matrix.postScale(-1f, 1f);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90f);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(-90f);
+                matrix.postScale(-1f, 1f);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(-90f);
+                break;
+            default:
+                break;
+        }
+        return matrix;
+    }
+
+    private static Bitmap scaleToFit(Bitmap source, int maxPx) {
+        int longEdge = Math.max(source.getWidth(), source.getHeight());
+        if (longEdge <= maxPx) {
+            return source;
+        }
+        float scale = (float) maxPx / longEdge;
+        int width = Math.max(1, Math.round(source.getWidth() * scale));
+        int height = Math.max(1, Math.round(source.getHeight() * scale));
+        return Bitmap.createScaledBitmap(source, width, height, true);
+    }
+
+    private static Bitmap cropSquare(Bitmap source, int sizePx) {
+        int side = Math.min(source.getWidth(), source.getHeight());
+        int size = Math.min(sizePx, side);
+        Bitmap output = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(output);
+        float scale = (float) size / side;
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postTranslate((size - source.getWidth() * scale) / 2f, (size - source.getHeight() * scale) / 2f);
+        canvas.drawColor(Color.WHITE);
+        canvas.drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        output.setHasAlpha(false);
+        return output;
+    }
+
+    private static void writeJpeg(Bitmap bitmap, File file) throws IOException {
+        Bitmap opaque = bitmap;
+        if (bitmap.hasAlpha()) {
+            opaque = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(opaque);
+            canvas.drawColor(Color.WHITE);
+            canvas.drawBitmap(bitmap, 0f, 0f, null);
+        }
+        try (OutputStream output = new FileOutputStream(file)) {
+            if (!opaque.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output)) {
+                throw new IOException("Failed to encode " + file.getName());
+            }
+        } finally {
+            if (opaque != bitmap) {
+                opaque.recycle();
+            }
+        }
+    }
+
+    private static void reportProgress(ProgressListener listener, int percent) {
+        if (listener != null) {
+            listener.onProgress(percent);
+        }
+    }
+
+    private static void throwIfCanceled(CancellationSignal signal) {
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+    }
+}
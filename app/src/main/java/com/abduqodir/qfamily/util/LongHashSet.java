@@ -0,0 +1,82 @@
+package com.abduqodir.qfamily.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing set of primitive {@code long}s with linear probing. Adding never boxes; the table
+ * doubles when it is half full. Not thread-safe.
+ */
+public final class LongHashSet {
+    private long[] keys;
+    private boolean[] used;
+    private int size;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = LongHashing.capacityFor(expectedSize);
+        keys = new long[capacity];
+        used = new boolean[capacity];
+    }
+
+    /**
+     * Returns true when the key was not present yet.
+     */
+    public boolean add(long key) {
+        int mask = keys.length - 1;
+        int slot = LongHashing.hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        used[slot] = true;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    public boolean contains(long key) {
+        int mask = keys.length - 1;
+        int slot = LongHashing.hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = LongHashing.hash(oldKeys[i]) & mask;
+                while (used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                used[slot] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.abduqodir.qfamily.util;
+
+final class LongHashing {
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private LongHashing() {
+    }
+
+    /**
+     * Spreads sequential ids and packed pairs over the table; the low bits index the slot.
+     */
+    static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    /**
+     * Smallest power of two that keeps {@code expectedSize} entries at most half full.
+     */
+    static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity < MAX_CAPACITY && capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,84 @@
+package com.abduqodir.qfamily.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from primitive {@code long} keys to {@code int} values with linear probing.
+ * Lookups of missing keys return the caller's default instead of null. Not thread-safe.
+ */
+public final class LongIntMap {
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    public LongIntMap() {
+        this(16);
+    }
+
+    public LongIntMap(int expectedSize) {
+        int capacity = LongHashing.capacityFor(expectedSize);
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    public int get(long key, int missing) {
+        int slot = find(key);
+        return used[slot] ? values[slot] : missing;
+    }
+
+    public boolean containsKey(long key) {
+        return used[find(key)];
+    }
+
+    public void put(long key, int value) {
+        int slot = find(key);
+        values[slot] = value;
+        if (!used[slot]) {
+            keys[slot] = key;
+            used[slot] = true;
+            if (++size * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /**
+     * Slot holding {@code key}, or the empty slot where it would go.
+     */
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = LongHashing.hash(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                used[slot] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.abduqodir.qfamily.util;
+
+/**
+ * Packs an unordered pair of non-negative ids into one {@code long}, smaller id in the high half,
+ * so pair lookups can use {@link LongHashSet} and {@link LongIntMap} instead of string keys.
+ */
+public final class PairKey {
+    private static final long HALF_MASK = 0xFFFFFFFFL;
+
+    private PairKey() {
+    }
+
+    public static long of(long a, long b) {
+        if (a < 0 || b < 0 || a > HALF_MASK || b > HALF_MASK) {
+            throw new IllegalArgumentException("Pair ids out of range: " + a + ", " + b);
+        }
+        return (Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+    public static long first(long key) {
+        return key >>> 32;
+    }
+
+    public static long second(long key) {
+        return key & HALF_MASK;
+    }
+}
@@ -6,14 +6,17 @@ import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import com.abduqodir.qfamily.data.Person;
+import com.abduqodir.qfamily.repository.PersonEdit;
 import com.abduqodir.qfamily.repository.PersonRepository;
 import com.abduqodir.qfamily.repository.RepositoryCallback;
+import java.util.ConcurrentModificationException;
 
 public class EditPersonViewModel extends AndroidViewModel {
     private final PersonRepository repository;
     private final MutableLiveData<Person> person = new MutableLiveData<>();
     private final MutableLiveData<Boolean> saveResult = new MutableLiveData<>();
     private final MutableLiveData<String> error = new MutableLiveData<>();
+    private final MutableLiveData<Event<Person>> saveConflict = new MutableLiveData<>();
 
     public EditPersonViewModel(@NonNull Application application) {
         super(application);
@@ -32,6 +35,14 @@ public class EditPersonViewModel extends AndroidViewModel {
         return error;
     }
 
+    /**
+     * Fires once when a save lost to another write, carrying the person as now stored. The form's
+     * person is left alone so the screen keeps the user's edits and can save them over that version.
+     */
+    public LiveData<Event<Person>> getSaveConflict() {
+        return saveConflict;
+    }
+
     public void loadPerson(long personId) {
         repository.getPersonById(personId, new RepositoryCallback<Person>() {
             @Override
@@ -46,11 +57,37 @@ public class EditPersonViewModel extends AndroidViewModel {
         });
     }
 
-    public void updatePerson(Person updated) {
-        repository.updatePerson(updated, new RepositoryCallback<Boolean>() {
+    /**
+     * Saves {@code edit} unless the person changed since the screen loaded {@code expectedVersion}.
+     */
+    public void updatePerson(long personId, long expectedVersion, PersonEdit edit) {
+        repository.updatePerson(personId, expectedVersion, edit, new RepositoryCallback<Boolean>() {
             @Override
             public void onComplete(Boolean result) {
-                saveResult.setValue(true);
+                saveResult.setValue(result);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                if (throwable instanceof ConcurrentModificationException) {
+                    loadConflict(personId);
+                    return;
+                }
+                error.setValue(throwable != null ? throwable.getMessage() : null);
+                saveResult.setValue(false);
+            }
+        });
+    }
+
+    private void loadConflict(long personId) {
+        repository.getPersonById(personId, new RepositoryCallback<Person>() {
+            @Override
+            public void onComplete(Person result) {
+                if (result == null) {
+                    person.setValue(null);
+                    return;
+                }
+                saveConflict.setValue(new Event<>(result));
             }
 
             @Override
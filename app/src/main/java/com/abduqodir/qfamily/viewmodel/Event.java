@@ -0,0 +1,30 @@
+package com.abduqodir.qfamily.viewmodel;
+
+/**
+ * LiveData value that should be acted on once, such as an error toast. LiveData replays its last
+ * value to a new observer after a configuration change, so observers call {@link #handle()} and
+ * skip the event when it returns false.
+ */
+public final class Event<T> {
+    private final T content;
+    private boolean handled;
+
+    public Event(T content) {
+        this.content = content;
+    }
+
+    /**
+     * Marks the event handled; true only the first time.
+     */
+    public boolean handle() {
+        if (handled) {
+            return false;
+        }
+        handled = true;
+        return true;
+    }
+
+    public T getContent() {
+        return content;
+    }
+}
@@ -0,0 +1,129 @@
+package com.abduqodir.qfamily.viewmodel;
+
+import com.abduqodir.qfamily.data.Person;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The people a shown tree was built from, indexed by id and by the links pointing at each person,
+ * so a patch finds the relatives of a changed row without scanning everyone. A published index is
+ * never modified; a patch works on its own {@link #copy()}.
+ */
+final class FamilyIndex {
+    final long rootId;
+    private final Map<Long, Person> people;
+    // Person id to the ids of the people whose mother, father or spouse link points at it.
+    private final Map<Long, Set<Long>> linkedFrom;
+
+    FamilyIndex(Person root, Collection<Person> people) {
+        this.rootId = root.id;
+        this.people = new LinkedHashMap<>(people.size() * 2);
+        this.linkedFrom = new HashMap<>(people.size() * 2);
+        for (Person person : people) {
+            put(person);
+        }
+    }
+
+    private FamilyIndex(FamilyIndex other) {
+        rootId = other.rootId;
+        people = new LinkedHashMap<>(other.people);
+        linkedFrom = new HashMap<>(other.linkedFrom.size() * 2);
+        for (Map.Entry<Long, Set<Long>> entry : other.linkedFrom.entrySet()) {
+            linkedFrom.put(entry.getKey(), new LinkedHashSet<>(entry.getValue()));
+        }
+    }
+
+    FamilyIndex copy() {
+        return new FamilyIndex(this);
+    }
+
+    Person root() {
+        return people.get(rootId);
+    }
+
+    Person get(long id) {
+        return people.get(id);
+    }
+
+    boolean contains(long id) {
+        return people.containsKey(id);
+    }
+
+    Collection<Person> people() {
+        return people.values();
+    }
+
+    void put(Person person) {
+        Person previous = people.put(person.id, person);
+        if (previous != null) {
+            unlink(previous);
+        }
+        link(person.id, person.motherId);
+        link(person.id, person.fatherId);
+        link(person.id, person.spouseId);
+    }
+
+    void remove(long id) {
+        Person previous = people.remove(id);
+        if (previous != null) {
+            unlink(previous);
+        }
+    }
+
+    /**
+     * Whether {@code person} links to someone in the index, or someone in the index links to it.
+     */
+    boolean isLinked(Person person) {
+        return (person.motherId != null && people.containsKey(person.motherId))
+                || (person.fatherId != null && people.containsKey(person.fatherId))
+                || (person.spouseId != null && people.containsKey(person.spouseId))
+                || linkedFrom.containsKey(person.id);
+    }
+
+    /**
+     * Children of the person, in the order they were added to the index.
+     */
+    List<Person> children(long id) {
+        Set<Long> linked = linkedFrom.get(id);
+        List<Person> children = new ArrayList<>();
+        if (linked == null) {
+            return children;
+        }
+        for (long linkedId : linked) {
+            Person person = people.get(linkedId);
+            if (Objects.equals(person.motherId, id) || Objects.equals(person.fatherId, id)) {
+                children.add(person);
+            }
+        }
+        return children;
+    }
+
+    private void link(long fromId, Long toId) {
+        if (toId != null) {
+            linkedFrom.computeIfAbsent(toId, id -> new LinkedHashSet<>()).add(fromId);
+        }
+    }
+
+    private void unlink(Person person) {
+        unlink(person.id, person.motherId);
+        unlink(person.id, person.fatherId);
+        unlink(person.id, person.spouseId);
+    }
+
+    private void unlink(long fromId, Long toId) {
+        if (toId == null) {
+            return;
+        }
+        Set<Long> linked = linkedFrom.get(toId);
+        if (linked != null && linked.remove(fromId) && linked.isEmpty()) {
+            linkedFrom.remove(toId);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.abduqodir.qfamily.viewmodel;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import com.abduqodir.qfamily.util.ImageStorage;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imports a picked photo in the background for the person editors. A downsampled preview is
+ * published first, then the renditions are written with progress; picking another photo or leaving
+ * the screen cancels the running import and removes its partial files.
+ */
+public class PhotoImportViewModel extends AndroidViewModel {
+    private final MutableLiveData<Bitmap> preview = new MutableLiveData<>();
+    private final MutableLiveData<Integer> progress = new MutableLiveData<>();
+    private final MutableLiveData<Boolean> importing = new MutableLiveData<>(false);
+    private final MutableLiveData<String> importedPhotoUri = new MutableLiveData<>();
+    private final MutableLiveData<Event<String>> error = new MutableLiveData<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService importExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicLong importGeneration = new AtomicLong();
+    private Future<?> pendingImport;
+    private CancellationSignal pendingSignal;
+
+    public PhotoImportViewModel(@NonNull Application application) {
+        super(application);
+    }
+
+    public LiveData<Bitmap> getPreview() {
+        return preview;
+    }
+
+    public LiveData<Integer> getProgress() {
+        return progress;
+    }
+
+    public LiveData<Boolean> isImporting() {
+        return importing;
+    }
+
+    public LiveData<String> getImportedPhotoUri() {
+        return importedPhotoUri;
+    }
+
+    /**
+     * Fires once per failed import; the message may be null.
+     */
+    public LiveData<Event<String>> getError() {
+        return error;
+    }
+
+    public void startImport(Uri sourceUri) {
+        long generation = importGeneration.incrementAndGet();
+        cancelPendingImport();
+        CancellationSignal signal = new CancellationSignal();
+        pendingSignal = signal;
+        importing.setValue(true);
+        progress.setValue(0);
+        Application application = getApplication();
+        int previewSize = ImageStorage.DETAIL_SIZE_PX / 2;
+        pendingImport = importExecutor.submit(() -> {
+            try {
+                Bitmap previewBitmap = ImageStorage.decodePreview(application, sourceUri, previewSize);
+                postIfCurrent(generation, () -> preview.setValue(previewBitmap));
+                String saved = ImageStorage.persistImage(application, sourceUri,
+                        percent -> postIfCurrent(generation, () -> progress.setValue(percent)), signal);
+                if (signal.isCanceled()) {
+                    ImageStorage.deleteImage(saved);
+                    return;
+                }
+                mainHandler.post(() -> {
+                    if (generation != importGeneration.get()) {
+                        // Cancelled after the check above; nobody will ever reference this file.
+                        discardImage(saved);
+                        return;
+                    }
+                    importing.setValue(false);
+                    if (saved != null) {
+                        importedPhotoUri.setValue(saved);
+                    } else {
+                        error.setValue(new Event<>(null));
+                    }
+                });
+            } catch (OperationCanceledException e) {
+                // Superseded by a newer pick or the screen went away.
+            } catch (IOException | RuntimeException e) {
+                postIfCurrent(generation, () -> {
+                    importing.setValue(false);
+                    error.setValue(new Event<>(e.getMessage()));
+                });
+            }
+        });
+    }
+
+    public void cancelImport() {
+        importGeneration.incrementAndGet();
+        cancelPendingImport();
+        importing.setValue(false);
+    }
+
+    @Override
+    protected void onCleared() {
+        importGeneration.incrementAndGet();
+        cancelPendingImport();
+        importExecutor.shutdown();
+        super.onCleared();
+    }
+
+    private void cancelPendingImport() {
+        if (pendingSignal != null) {
+            pendingSignal.cancel();
+            pendingSignal = null;
+        }
+        if (pendingImport != null) {
+            pendingImport.cancel(false);
+            pendingImport = null;
+        }
+    }
+
+    /**
+     * Deletes the files of an import that finished after it was cancelled. Runs on the main thread,
+     * so the executor cannot be shut down between the check and the submit.
+     */
+    private void discardImage(String photoUri) {
+        if (photoUri == null) {
+            return;
+        }
+        if (importExecutor.isShutdown()) {
+            ImageStorage.deleteImage(photoUri);
+        } else {
+            importExecutor.execute(() -> ImageStorage.deleteImage(photoUri));
+        }
+    }
+
+    private void postIfCurrent(long generation, Runnable action) {
+        mainHandler.post(() -> {
+            if (generation == importGeneration.get()) {
+                action.run();
+            }
+        });
+    }
+}
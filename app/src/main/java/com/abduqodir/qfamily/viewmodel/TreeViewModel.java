@@ -2,36 +2,65 @@ package com.abduqodir.qfamily.viewmodel;
 
 import android.app.Application;
 import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
 import com.abduqodir.qfamily.R;
 import com.abduqodir.qfamily.data.Person;
+import com.abduqodir.qfamily.repository.FamilyNeighbourhood;
+import com.abduqodir.qfamily.repository.PersonChange;
+import com.abduqodir.qfamily.repository.PersonChangeListener;
 import com.abduqodir.qfamily.repository.PersonRepository;
 import com.abduqodir.qfamily.repository.RepositoryCallback;
+import com.abduqodir.qfamily.ui.tree.layout.TidyTreeLayoutEngine;
+import com.abduqodir.qfamily.ui.tree.layout.TreeLayoutEngine;
 import com.abduqodir.qfamily.ui.tree.model.TreeData;
 import com.abduqodir.qfamily.ui.tree.model.TreeEdge;
 import com.abduqodir.qfamily.ui.tree.model.TreeNode;
 import com.abduqodir.qfamily.util.InitialsUtils;
+import com.abduqodir.qfamily.util.LongHashSet;
+import com.abduqodir.qfamily.util.PairKey;
 import com.abduqodir.qfamily.util.PersonFormatter;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Queue;
-import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TreeViewModel extends AndroidViewModel {
     private static final int MAX_UP_LEVELS = 2;
     private static final int MAX_DOWN_LEVELS = 2;
 
     private final PersonRepository repository;
+    private final TreeLayoutEngine layoutEngine = new TidyTreeLayoutEngine();
     private final MutableLiveData<TreeData> treeData = new MutableLiveData<>();
     private final MutableLiveData<Person> rootPerson = new MutableLiveData<>();
     private final MutableLiveData<Person> selectedPerson = new MutableLiveData<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService layoutExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicLong loadGeneration = new AtomicLong();
+    private final PersonChangeListener changeListener = this::onPeopleChanged;
+    private final Observer<Long> versionObserver = this::onDataVersionChanged;
+    private final List<PersonChange> pendingChanges = new ArrayList<>();
+    private Future<?> pendingLayout;
+    // People the shown tree was built from and the data version it reflects; main thread only.
+    private FamilyIndex shown;
+    private long shownVersion = -1L;
+    private long latestVersion;
+    private boolean updatePending;
+    private boolean refreshScheduled;
 
     private float translateX;
     private float translateY;
@@ -40,6 +69,8 @@ public class TreeViewModel extends AndroidViewModel {
     public TreeViewModel(@NonNull Application application) {
         super(application);
         repository = new PersonRepository(application);
+        repository.addChangeListener(changeListener);
+        repository.getDataVersion().observeForever(versionObserver);
     }
 
     public LiveData<TreeData> getTreeData() {
@@ -58,22 +89,34 @@ public class TreeViewModel extends AndroidViewModel {
         selectedPerson.setValue(person);
     }
 
-    public void loadTree() {
-        repository.getAllPeople(new RepositoryCallback<List<Person>>() {
+    private void loadTree(long version) {
+        long generation = loadGeneration.incrementAndGet();
+        cancelPendingLayout();
+        updatePending = true;
+        pendingChanges.clear();
+        repository.getTreeNeighbourhood(MAX_UP_LEVELS, MAX_DOWN_LEVELS, new RepositoryCallback<FamilyNeighbourhood>() {
             @Override
-            public void onComplete(List<Person> people) {
-                if (people == null || people.isEmpty()) {
+            public void onComplete(FamilyNeighbourhood result) {
+                if (!isCurrent(generation)) {
+                    return;
+                }
+                if (result == null || result.root == null || result.people.isEmpty()) {
+                    shown = null;
+                    finishUpdate(version);
                     rootPerson.setValue(null);
                     treeData.setValue(new TreeData(new ArrayList<>(), new ArrayList<>()));
                     return;
                 }
-                Person root = findRoot(people);
-                rootPerson.setValue(root);
-                treeData.setValue(buildTreeData(people, root));
+                scheduleLayout(generation, version, new FamilyIndex(result.root, result.people));
             }
 
             @Override
             public void onError(Throwable throwable) {
+                if (!isCurrent(generation)) {
+                    return;
+                }
+                shown = null;
+                finishUpdate(version);
                 treeData.setValue(new TreeData(new ArrayList<>(), new ArrayList<>()));
             }
         });
@@ -97,69 +140,354 @@ public class TreeViewModel extends AndroidViewModel {
         this.scaleFactor = scaleFactor;
     }
 
-    private Person findRoot(List<Person> people) {
-        for (Person person : people) {
-            if (person.isRoot) {
-                return person;
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        repository.removeChangeListener(changeListener);
+        repository.getDataVersion().removeObserver(versionObserver);
+        loadGeneration.incrementAndGet();
+        cancelPendingLayout();
+        layoutExecutor.shutdownNow();
+    }
+
+    private void scheduleLayout(long generation, long version, FamilyIndex people) {
+        cancelPendingLayout();
+        pendingLayout = layoutExecutor.submit(() -> {
+            TreeData data;
+            try {
+                data = buildTreeData(people, null, generation);
+            } catch (CancellationException e) {
+                return;
             }
+            mainHandler.post(() -> {
+                if (!isCurrent(generation)) {
+                    return;
+                }
+                shown = people;
+                finishUpdate(version);
+                rootPerson.setValue(people.root());
+                treeData.setValue(data);
+            });
+        });
+    }
+
+    /**
+     * Every change to the people table bumps the data version. Bumps that arrive while a refresh is
+     * scheduled or running are coalesced into a single follow-up refresh.
+     */
+    private void onDataVersionChanged(Long version) {
+        if (version == null || version <= shownVersion) {
+            return;
         }
-        return people.get(0);
+        latestVersion = Math.max(latestVersion, version);
+        scheduleRefresh();
     }
 
-    private TreeData buildTreeData(List<Person> people, Person root) {
-        Map<Long, Person> personMap = new HashMap<>();
-        Map<Long, List<Person>> childrenMap = new HashMap<>();
-        for (Person person : people) {
-            personMap.put(person.id, person);
+    /**
+     * Writes made through the repository say which rows they touched; they are kept until the
+     * version bump they cause triggers a refresh, which can then patch instead of reload.
+     */
+    private void onPeopleChanged(PersonChange change) {
+        pendingChanges.add(change);
+    }
+
+    private void scheduleRefresh() {
+        if (refreshScheduled) {
+            return;
         }
-        for (Person person : people) {
-            if (person.motherId != null) {
-                childrenMap.computeIfAbsent(person.motherId, id -> new ArrayList<>()).add(person);
+        refreshScheduled = true;
+        mainHandler.post(this::refresh);
+    }
+
+    /**
+     * Brings the shown tree up to the latest data version: by patching it with the rows the pending
+     * writes touched, or with a full load when the change is unknown, deletes the root, or the tree
+     * is not built yet.
+     */
+    private void refresh() {
+        refreshScheduled = false;
+        if (updatePending || latestVersion <= shownVersion) {
+            return;
+        }
+        long version = latestVersion;
+        FamilyIndex base = shown;
+        TreeData current = treeData.getValue();
+        PersonChange change = drainPendingChanges();
+        if (change == null || base == null || current == null || contains(change.deletedIds, base.rootId)) {
+            loadTree(version);
+            return;
+        }
+        patchTree(version, base, current, change);
+    }
+
+    private void finishUpdate(long version) {
+        shownVersion = Math.max(shownVersion, version);
+        updatePending = false;
+        if (latestVersion > shownVersion) {
+            scheduleRefresh();
+        }
+    }
+
+    private PersonChange drainPendingChanges() {
+        if (pendingChanges.isEmpty()) {
+            return null;
+        }
+        PersonChange merged = pendingChanges.get(0);
+        for (int i = 1; i < pendingChanges.size(); i++) {
+            merged = merged.plus(pendingChanges.get(i));
+        }
+        pendingChanges.clear();
+        return merged;
+    }
+
+    /**
+     * Patches the shown tree with a repository write instead of reloading it. Only the changed rows
+     * are read back; edits that keep every parent and spouse link reuse the current layout, other
+     * edits keep the unchanged nodes where they are and place only the new ones.
+     */
+    private void patchTree(long version, FamilyIndex base, TreeData current, PersonChange change) {
+        long generation = loadGeneration.incrementAndGet();
+        cancelPendingLayout();
+        updatePending = true;
+        long[] changedIds = new long[change.insertedIds.length + change.updatedIds.length];
+        System.arraycopy(change.insertedIds, 0, changedIds, 0, change.insertedIds.length);
+        System.arraycopy(change.updatedIds, 0, changedIds, change.insertedIds.length, change.updatedIds.length);
+        if (changedIds.length == 0) {
+            schedulePatch(generation, version, base, current, change, new ArrayList<>());
+            return;
+        }
+        repository.getPeopleByIds(changedIds, new RepositoryCallback<List<Person>>() {
+            @Override
+            public void onComplete(List<Person> changed) {
+                if (!isCurrent(generation)) {
+                    return;
+                }
+                for (Person person : changed) {
+                    if (person.isRoot && person.id != base.rootId) {
+                        loadTree(version);
+                        return;
+                    }
+                }
+                schedulePatch(generation, version, base, current, change, changed);
             }
-            if (person.fatherId != null) {
-                childrenMap.computeIfAbsent(person.fatherId, id -> new ArrayList<>()).add(person);
+
+            @Override
+            public void onError(Throwable throwable) {
+                if (isCurrent(generation)) {
+                    loadTree(version);
+                }
+            }
+        });
+    }
+
+    /**
+     * Falls back to a full load when the patch would lose the root, or when a changed row now links
+     * to someone outside the shown people, whose own relatives were never read.
+     */
+    private void schedulePatch(long generation,
+                               long version,
+                               FamilyIndex base,
+                               TreeData current,
+                               PersonChange change,
+                               List<Person> changed) {
+        cancelPendingLayout();
+        pendingLayout = layoutExecutor.submit(() -> {
+            FamilyIndex people = base.copy();
+            boolean relinked = change.insertedIds.length > 0 || change.deletedIds.length > 0;
+            for (long id : change.deletedIds) {
+                people.remove(id);
+            }
+            Map<Long, Person> changedById = new HashMap<>();
+            List<Person> relinkedPeople = new ArrayList<>();
+            for (Person person : changed) {
+                changedById.put(person.id, person);
+                Person previous = people.get(person.id);
+                if (previous != null) {
+                    if (!sameLinks(previous, person)) {
+                        relinked = true;
+                        relinkedPeople.add(person);
+                    }
+                    people.put(person);
+                }
+            }
+            List<Person> added = addLinkedPeople(people, changed);
+            relinkedPeople.addAll(added);
+            Person root = people.root();
+            if (root == null || root.isRoot != base.root().isRoot || linksOutside(people, relinkedPeople)) {
+                mainHandler.post(() -> {
+                    if (isCurrent(generation)) {
+                        loadTree(version);
+                    }
+                });
+                return;
+            }
+
+            TreeData data;
+            try {
+                data = relinked
+                        ? buildTreeData(people, current, generation)
+                        : relabel(current, changedById);
+            } catch (CancellationException e) {
+                return;
+            }
+            for (Person person : added) {
+                if (data.indexOf(person.id) < 0) {
+                    people.remove(person.id);
+                }
             }
+            mainHandler.post(() -> {
+                if (!isCurrent(generation)) {
+                    return;
+                }
+                shown = people;
+                finishUpdate(version);
+                rootPerson.setValue(root);
+                Person selected = selectedPerson.getValue();
+                if (selected != null && contains(change.deletedIds, selected.id)) {
+                    selectedPerson.setValue(null);
+                } else if (selected != null && changedById.containsKey(selected.id)) {
+                    selectedPerson.setValue(changedById.get(selected.id));
+                }
+                treeData.setValue(data);
+            });
+        });
+    }
+
+    /**
+     * Same nodes, edges and positions as {@code current}, with the changed people's nodes rebuilt
+     * for their new names and photos.
+     */
+    private TreeData relabel(TreeData current, Map<Long, Person> changed) {
+        List<TreeNode> nodes = new ArrayList<>(current.size());
+        for (int i = 0; i < current.size(); i++) {
+            Person person = changed.get(current.id(i));
+            if (person == null) {
+                person = current.person(i);
+            }
+            TreeNode node = createNode(person, current.level(i));
+            node.x = current.x(i);
+            node.y = current.y(i);
+            nodes.add(node);
+        }
+        return new TreeData(nodes, current);
+    }
+
+    private static boolean sameLinks(Person a, Person b) {
+        return Objects.equals(a.motherId, b.motherId) && Objects.equals(a.fatherId, b.fatherId)
+                && Objects.equals(a.spouseId, b.spouseId) && a.isRoot == b.isRoot;
+    }
+
+    /**
+     * Adds the changed rows that are not shown yet but link to, or are linked from, someone who is,
+     * repeating until none is left so relatives inserted together are picked up in any order.
+     * Whether they are close enough to the root to be drawn is decided when the tree is built.
+     */
+    private static List<Person> addLinkedPeople(FamilyIndex people, List<Person> changed) {
+        List<Person> added = new ArrayList<>();
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (Person person : changed) {
+                if (!people.contains(person.id) && people.isLinked(person)) {
+                    people.put(person);
+                    added.add(person);
+                    progress = true;
+                }
+            }
+        }
+        return added;
+    }
+
+    private static boolean linksOutside(FamilyIndex people, List<Person> relinked) {
+        for (Person person : relinked) {
+            if (isOutside(people, person.motherId) || isOutside(people, person.fatherId)
+                    || isOutside(people, person.spouseId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOutside(FamilyIndex people, Long id) {
+        return id != null && !people.contains(id);
+    }
+
+    private static boolean contains(long[] ids, long id) {
+        for (long candidate : ids) {
+            if (candidate == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void cancelPendingLayout() {
+        if (pendingLayout != null) {
+            pendingLayout.cancel(true);
+            pendingLayout = null;
+        }
+    }
+
+    private boolean isCurrent(long generation) {
+        return generation == loadGeneration.get();
+    }
+
+    private void ensureCurrent(long generation) {
+        if (!isCurrent(generation) || Thread.currentThread().isInterrupted()) {
+            throw new CancellationException();
         }
+    }
 
-        Map<Long, TreeNode> nodesById = new HashMap<>();
-        Map<Integer, List<TreeNode>> levelMap = new HashMap<>();
+    /**
+     * Picks the people within the level limits around the root and lays them out, in full or, given
+     * the {@code previous} tree, keeping every node that is still on the same level where it was.
+     */
+    private TreeData buildTreeData(FamilyIndex people, TreeData previous, long generation) {
+        Person root = people.root();
+        Map<Long, TreeNode> nodesById = new LinkedHashMap<>();
         List<TreeEdge> edges = new ArrayList<>();
-        Set<String> edgeKeys = new HashSet<>();
+        LongHashSet edgeKeys = new LongHashSet(people.people().size() * 2);
 
-        addNode(nodesById, levelMap, root, 0);
+        addNode(nodesById, root, 0);
 
-        buildAncestors(root, personMap, nodesById, levelMap, edges, edgeKeys);
-        buildDescendants(root, childrenMap, nodesById, levelMap, edges, edgeKeys);
-        addSpouses(personMap, nodesById, levelMap, edges, edgeKeys);
-        buildAncestorsForExistingNodes(personMap, nodesById, levelMap, edges, edgeKeys);
+        buildAncestors(root, people, nodesById, edges, edgeKeys);
+        buildDescendants(root, people, nodesById, edges, edgeKeys);
+        ensureCurrent(generation);
+        addSpouses(people, nodesById, edges, edgeKeys);
+        buildAncestorsForExistingNodes(people, nodesById, edges, edgeKeys);
         addExplicitParentEdges(nodesById, edges, edgeKeys);
+        ensureCurrent(generation);
 
         Resources resources = getApplication().getResources();
         float spacingX = resources.getDimension(R.dimen.tree_spacing_x);
         float spacingY = resources.getDimension(R.dimen.tree_spacing_y);
-        for (Map.Entry<Integer, List<TreeNode>> entry : levelMap.entrySet()) {
-            List<TreeNode> nodes = entry.getValue();
-            int count = nodes.size();
-            for (int i = 0; i < count; i++) {
+        List<TreeNode> nodes = new ArrayList<>(nodesById.values());
+        if (previous == null) {
+            layoutEngine.layout(nodes, nodesById.get(root.id), spacingX, spacingY);
+        } else {
+            boolean[] kept = new boolean[nodes.size()];
+            for (int i = 0; i < kept.length; i++) {
                 TreeNode node = nodes.get(i);
-                node.x = (i - (count - 1) / 2f) * spacingX;
-                node.y = node.level * spacingY;
+                int index = previous.indexOf(node.person.id);
+                if (index >= 0 && previous.level(index) == node.level) {
+                    node.x = previous.x(index);
+                    kept[i] = true;
+                }
             }
+            layoutEngine.relayout(nodes, nodesById.get(root.id), kept, spacingX, spacingY);
         }
+        ensureCurrent(generation);
 
-        alignChildrenBetweenParents(nodesById, personMap);
-
-        return new TreeData(new ArrayList<>(nodesById.values()), edges);
+        return new TreeData(nodes, edges);
     }
 
     private void buildAncestors(Person root,
-                                Map<Long, Person> personMap,
+                                FamilyIndex people,
                                 Map<Long, TreeNode> nodesById,
-                                Map<Integer, List<TreeNode>> levelMap,
                                 List<TreeEdge> edges,
-                                Set<String> edgeKeys) {
+                                LongHashSet edgeKeys) {
         Queue<PersonLevel> queue = new ArrayDeque<>();
-        Set<Long> visited = new HashSet<>();
+        LongHashSet visited = new LongHashSet();
         queue.add(new PersonLevel(root, 0));
         visited.add(root.id);
 
@@ -170,9 +498,9 @@ public class TreeViewModel extends AndroidViewModel {
             }
             Person person = current.person;
             if (person.motherId != null) {
-                Person mother = personMap.get(person.motherId);
+                Person mother = people.get(person.motherId);
                 if (mother != null) {
-                    addNode(nodesById, levelMap, mother, current.level - 1);
+                    addNode(nodesById, mother, current.level - 1);
                     addEdge(edges, edgeKeys, mother.id, person.id);
                     if (visited.add(mother.id)) {
                         queue.add(new PersonLevel(mother, current.level - 1));
@@ -180,9 +508,9 @@ public class TreeViewModel extends AndroidViewModel {
                 }
             }
             if (person.fatherId != null) {
-                Person father = personMap.get(person.fatherId);
+                Person father = people.get(person.fatherId);
                 if (father != null) {
-                    addNode(nodesById, levelMap, father, current.level - 1);
+                    addNode(nodesById, father, current.level - 1);
                     addEdge(edges, edgeKeys, father.id, person.id);
                     if (visited.add(father.id)) {
                         queue.add(new PersonLevel(father, current.level - 1));
@@ -193,13 +521,12 @@ public class TreeViewModel extends AndroidViewModel {
     }
 
     private void buildDescendants(Person root,
-                                  Map<Long, List<Person>> childrenMap,
+                                  FamilyIndex people,
                                   Map<Long, TreeNode> nodesById,
-                                  Map<Integer, List<TreeNode>> levelMap,
                                   List<TreeEdge> edges,
-                                  Set<String> edgeKeys) {
+                                  LongHashSet edgeKeys) {
         Queue<PersonLevel> queue = new ArrayDeque<>();
-        Set<Long> visited = new HashSet<>();
+        LongHashSet visited = new LongHashSet();
         queue.add(new PersonLevel(root, 0));
         visited.add(root.id);
 
@@ -208,12 +535,8 @@ public class TreeViewModel extends AndroidViewModel {
             if (current.level >= MAX_DOWN_LEVELS) {
                 continue;
             }
-            List<Person> children = childrenMap.get(current.person.id);
-            if (children == null) {
-                continue;
-            }
-            for (Person child : children) {
-                addNode(nodesById, levelMap, child, current.level + 1);
+            for (Person child : people.children(current.person.id)) {
+                addNode(nodesById, child, current.level + 1);
                 addEdge(edges, edgeKeys, current.person.id, child.id);
                 if (visited.add(child.id)) {
                     queue.add(new PersonLevel(child, current.level + 1));
@@ -222,12 +545,11 @@ public class TreeViewModel extends AndroidViewModel {
         }
     }
 
-    private void addSpouses(Map<Long, Person> personMap,
+    private void addSpouses(FamilyIndex people,
                             Map<Long, TreeNode> nodesById,
-                            Map<Integer, List<TreeNode>> levelMap,
                             List<TreeEdge> edges,
-                            Set<String> edgeKeys) {
-        Set<String> spouseEdges = new HashSet<>();
+                            LongHashSet edgeKeys) {
+        LongHashSet spouseEdges = new LongHashSet();
         List<TreeNode> snapshot = new ArrayList<>(nodesById.values());
 
         for (TreeNode node : snapshot) {
@@ -235,77 +557,48 @@ public class TreeViewModel extends AndroidViewModel {
             if (person == null || person.spouseId == null) {
                 continue;
             }
-            Person spousePerson = personMap.get(person.spouseId);
+            Person spousePerson = people.get(person.spouseId);
             if (spousePerson == null) {
                 continue;
             }
 
-            TreeNode spouseNode = nodesById.get(spousePerson.id);
-            if (spouseNode == null) {
+            if (!nodesById.containsKey(spousePerson.id)) {
                 String initials = InitialsUtils.buildInitials(
                         spousePerson.lastName,
                         spousePerson.firstName,
                         spousePerson.middleName
                 );
                 String fullName = PersonFormatter.getFullName(spousePerson);
-                spouseNode = new TreeNode(spousePerson, node.level, initials, fullName);
-                nodesById.put(spousePerson.id, spouseNode);
-
-                List<TreeNode> levelList = levelMap.computeIfAbsent(node.level, key -> new ArrayList<>());
-                int index = levelList.indexOf(node);
-                if (index >= 0 && index < levelList.size()) {
-                    levelList.add(index + 1, spouseNode);
-                } else {
-                    levelList.add(spouseNode);
-                }
-            } else if (spouseNode.level == node.level) {
-                List<TreeNode> levelList = levelMap.get(node.level);
-                if (levelList != null) {
-                    int personIndex = levelList.indexOf(node);
-                    int spouseIndex = levelList.indexOf(spouseNode);
-                    if (personIndex != -1 && spouseIndex != -1
-                            && Math.abs(personIndex - spouseIndex) != 1) {
-                        levelList.remove(spouseNode);
-                        personIndex = levelList.indexOf(node);
-                        if (personIndex == -1 || personIndex >= levelList.size()) {
-                            levelList.add(spouseNode);
-                        } else {
-                            levelList.add(personIndex + 1, spouseNode);
-                        }
-                    }
-                }
+                nodesById.put(spousePerson.id, new TreeNode(spousePerson, node.level, initials, fullName));
             }
 
-            String key = spouseEdgeKey(person.id, spousePerson.id);
-            if (spouseEdges.add(key)) {
+            if (spouseEdges.add(PairKey.of(person.id, spousePerson.id))) {
                 addEdge(edges, edgeKeys, person.id, spousePerson.id);
             }
         }
     }
 
-    private void buildAncestorsForExistingNodes(Map<Long, Person> personMap,
+    private void buildAncestorsForExistingNodes(FamilyIndex people,
                                                 Map<Long, TreeNode> nodesById,
-                                                Map<Integer, List<TreeNode>> levelMap,
                                                 List<TreeEdge> edges,
-                                                Set<String> edgeKeys) {
+                                                LongHashSet edgeKeys) {
         List<TreeNode> snapshot = new ArrayList<>(nodesById.values());
         for (TreeNode node : snapshot) {
             if (node.person == null) {
                 continue;
             }
-            buildAncestorsFromNode(node.person, node.level, personMap, nodesById, levelMap, edges, edgeKeys);
+            buildAncestorsFromNode(node.person, node.level, people, nodesById, edges, edgeKeys);
         }
     }
 
     private void buildAncestorsFromNode(Person start,
                                         int startLevel,
-                                        Map<Long, Person> personMap,
+                                        FamilyIndex people,
                                         Map<Long, TreeNode> nodesById,
-                                        Map<Integer, List<TreeNode>> levelMap,
                                         List<TreeEdge> edges,
-                                        Set<String> edgeKeys) {
+                                        LongHashSet edgeKeys) {
         Queue<PersonLevel> queue = new ArrayDeque<>();
-        Set<Long> visited = new HashSet<>();
+        LongHashSet visited = new LongHashSet();
         queue.add(new PersonLevel(start, startLevel));
         visited.add(start.id);
 
@@ -316,9 +609,9 @@ public class TreeViewModel extends AndroidViewModel {
             }
             Person person = current.person;
             if (person.motherId != null) {
-                Person mother = personMap.get(person.motherId);
+                Person mother = people.get(person.motherId);
                 if (mother != null) {
-                    addNode(nodesById, levelMap, mother, current.level - 1);
+                    addNode(nodesById, mother, current.level - 1);
                     addEdge(edges, edgeKeys, mother.id, person.id);
                     if (visited.add(mother.id)) {
                         queue.add(new PersonLevel(mother, current.level - 1));
@@ -326,9 +619,9 @@ public class TreeViewModel extends AndroidViewModel {
                 }
             }
             if (person.fatherId != null) {
-                Person father = personMap.get(person.fatherId);
+                Person father = people.get(person.fatherId);
                 if (father != null) {
-                    addNode(nodesById, levelMap, father, current.level - 1);
+                    addNode(nodesById, father, current.level - 1);
                     addEdge(edges, edgeKeys, father.id, person.id);
                     if (visited.add(father.id)) {
                         queue.add(new PersonLevel(father, current.level - 1));
@@ -339,7 +632,6 @@ public class TreeViewModel extends AndroidViewModel {
     }
 
     private void addNode(Map<Long, TreeNode> nodesById,
-                         Map<Integer, List<TreeNode>> levelMap,
                          Person person,
                          int level) {
         if (person == null) {
@@ -349,16 +641,18 @@ public class TreeViewModel extends AndroidViewModel {
         if (existing != null) {
             return;
         }
+        nodesById.put(person.id, createNode(person, level));
+    }
+
+    private TreeNode createNode(Person person, int level) {
         String initials = InitialsUtils.buildInitials(person.lastName, person.firstName, person.middleName);
         String fullName = PersonFormatter.getFullName(person);
-        TreeNode node = new TreeNode(person, level, initials, fullName);
-        nodesById.put(person.id, node);
-        levelMap.computeIfAbsent(level, key -> new ArrayList<>()).add(node);
+        return new TreeNode(person, level, initials, fullName);
     }
 
     private void addExplicitParentEdges(Map<Long, TreeNode> nodesById,
                                         List<TreeEdge> edges,
-                                        Set<String> edgeKeys) {
+                                        LongHashSet edgeKeys) {
         for (TreeNode node : nodesById.values()) {
             Person person = node.person;
             if (person == null) {
@@ -373,73 +667,8 @@ public class TreeViewModel extends AndroidViewModel {
         }
     }
 
-    private void alignChildrenBetweenParents(Map<Long, TreeNode> nodesById,
-                                             Map<Long, Person> personMap) {
-        Map<String, List<TreeNode>> childrenByParents = new HashMap<>();
-        for (TreeNode node : nodesById.values()) {
-            Person person = node.person;
-            if (person == null || person.motherId == null || person.fatherId == null) {
-                continue;
-            }
-            TreeNode motherNode = nodesById.get(person.motherId);
-            TreeNode fatherNode = nodesById.get(person.fatherId);
-            if (motherNode == null || fatherNode == null) {
-                continue;
-            }
-            String key = parentPairKey(motherNode.person.id, fatherNode.person.id);
-            childrenByParents.computeIfAbsent(key, k -> new ArrayList<>()).add(node);
-        }
-
-        for (Map.Entry<String, List<TreeNode>> entry : childrenByParents.entrySet()) {
-            List<TreeNode> children = entry.getValue();
-            if (children == null || children.isEmpty()) {
-                continue;
-            }
-            TreeNode sampleChild = children.get(0);
-            Person person = sampleChild.person;
-            if (person == null) {
-                continue;
-            }
-            TreeNode motherNode = nodesById.get(person.motherId);
-            TreeNode fatherNode = nodesById.get(person.fatherId);
-            if (motherNode == null || fatherNode == null) {
-                continue;
-            }
-            float leftX = Math.min(motherNode.x, fatherNode.x);
-            float rightX = Math.max(motherNode.x, fatherNode.x);
-            if (children.size() == 1) {
-                children.get(0).x = (leftX + rightX) / 2f;
-                continue;
-            }
-            children.sort((a, b) -> Float.compare(a.x, b.x));
-            float spacing = (rightX - leftX) / (children.size() + 1f);
-            if (spacing == 0f) {
-                for (TreeNode child : children) {
-                    child.x = leftX;
-                }
-                continue;
-            }
-            for (int i = 0; i < children.size(); i++) {
-                children.get(i).x = leftX + spacing * (i + 1);
-            }
-        }
-    }
-
-    private String parentPairKey(long firstId, long secondId) {
-        long min = Math.min(firstId, secondId);
-        long max = Math.max(firstId, secondId);
-        return min + ":" + max;
-    }
-
-    private String spouseEdgeKey(long firstId, long secondId) {
-        long min = Math.min(firstId, secondId);
-        long max = Math.max(firstId, secondId);
-        return min + ":" + max;
-    }
-
-    private void addEdge(List<TreeEdge> edges, Set<String> edgeKeys, long fromId, long toId) {
-        String key = spouseEdgeKey(fromId, toId);
-        if (edgeKeys.add(key)) {
+    private void addEdge(List<TreeEdge> edges, LongHashSet edgeKeys, long fromId, long toId) {
+        if (edgeKeys.add(PairKey.of(fromId, toId))) {
             edges.add(new TreeEdge(fromId, toId));
         }
     }
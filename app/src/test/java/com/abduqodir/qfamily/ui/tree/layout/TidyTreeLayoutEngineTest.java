@@ -0,0 +1,202 @@
+package com.abduqodir.qfamily.ui.tree.layout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.abduqodir.qfamily.data.Person;
+import com.abduqodir.qfamily.ui.tree.model.TreeNode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class TidyTreeLayoutEngineTest {
+    private static final float SPACING_X = 100f;
+    private static final float SPACING_Y = 150f;
+    private static final float EPSILON = 1e-3f;
+
+    private final List<TreeNode> nodes = new ArrayList<>();
+
+    @Test
+    public void singleRootSitsAtTheOrigin() {
+        TreeNode root = add(1, 0, null, null, null);
+        layout(root);
+        assertEquals(0f, root.x, EPSILON);
+        assertEquals(0f, root.y, EPSILON);
+    }
+
+    @Test
+    public void spousesSitOneSpacingApart() {
+        TreeNode root = add(1, 0, null, null, 2L);
+        TreeNode spouse = add(2, 0, null, null, 1L);
+        layout(root);
+        assertEquals(SPACING_X, Math.abs(spouse.x - root.x), EPSILON);
+    }
+
+    @Test
+    public void onlyChildIsCentredUnderTheCouple() {
+        TreeNode root = add(1, 0, null, null, 2L);
+        TreeNode spouse = add(2, 0, null, null, 1L);
+        TreeNode child = add(3, 1, 2L, 1L, null);
+        layout(root);
+        assertEquals((root.x + spouse.x) / 2f, child.x, EPSILON);
+    }
+
+    @Test
+    public void rowsFollowLevels() {
+        TreeNode root = add(1, 0, 2L, 3L, null);
+        TreeNode mother = add(2, -1, null, null, 3L);
+        TreeNode child = add(4, 1, null, 1L, null);
+        add(3, -1, null, null, 2L);
+        layout(root);
+        assertEquals(-SPACING_Y, mother.y, EPSILON);
+        assertEquals(0f, root.y, EPSILON);
+        assertEquals(SPACING_Y, child.y, EPSILON);
+    }
+
+    @Test
+    public void extendedFamilyNeverOverlapsOnALevel() {
+        TreeNode root = buildExtendedFamily();
+        layout(root);
+        assertNoOverlap();
+    }
+
+    @Test
+    public void layoutIsDeterministic() {
+        TreeNode root = buildExtendedFamily();
+        layout(root);
+        float[] first = xs();
+        for (TreeNode node : nodes) {
+            node.x = 0f;
+        }
+        layout(root);
+        float[] second = xs();
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(first[i], second[i], 0f);
+        }
+    }
+
+    @Test
+    public void relayoutKeepsUnchangedLevelsWhereTheyWere() {
+        TreeNode root = buildExtendedFamily();
+        layout(root);
+        float[] before = xs();
+        int oldCount = nodes.size();
+        TreeNode child = add(24, 1, 2L, 1L, null);
+        relayout(root, oldCount);
+        for (int i = 0; i < oldCount; i++) {
+            if (nodes.get(i).level != 1) {
+                assertEquals(before[i], nodes.get(i).x, 0f);
+            }
+        }
+        assertEquals(SPACING_Y, child.y, EPSILON);
+        assertNoOverlap();
+    }
+
+    @Test
+    public void relayoutPlacesNewParentsOverTheirChild() {
+        TreeNode root = add(1, 0, null, null, null);
+        TreeNode child = add(2, 1, null, 1L, null);
+        layout(root);
+        root.person.motherId = 3L;
+        TreeNode mother = add(3, -1, null, null, null);
+        relayout(root, 2);
+        assertEquals(root.x, mother.x, EPSILON);
+        assertEquals(0f, child.x - root.x, EPSILON);
+    }
+
+    @Test
+    public void relayoutPutsANewSpouseBesideTheKeptPartner() {
+        TreeNode root = buildExtendedFamily();
+        layout(root);
+        TreeNode single = nodes.get(7);
+        single.person.spouseId = 32L;
+        TreeNode spouse = add(32, 1, null, null, 21L);
+        relayout(root, nodes.size() - 1);
+        assertEquals(SPACING_X, spouse.x - single.x, EPSILON);
+        assertNoOverlap();
+    }
+
+    /**
+     * Root couple with both sets of parents, four children of whom two are married to spouses with
+     * their own parents, and grandchildren under both married children.
+     */
+    private TreeNode buildExtendedFamily() {
+        TreeNode root = add(1, 0, 10L, 11L, 2L);
+        add(2, 0, 12L, 13L, 1L);
+        add(10, -1, null, null, 11L);
+        add(11, -1, null, null, 10L);
+        add(12, -1, null, null, 13L);
+        add(13, -1, null, null, 12L);
+        add(20, 1, 2L, 1L, 30L);
+        add(21, 1, 2L, 1L, null);
+        add(22, 1, 2L, 1L, 31L);
+        add(23, 1, 2L, 1L, null);
+        add(30, 1, 40L, 41L, 20L);
+        add(31, 1, 42L, null, 22L);
+        add(40, 0, null, null, 41L);
+        add(41, 0, null, null, 40L);
+        add(42, 0, null, null, null);
+        for (long id = 50; id < 54; id++) {
+            add(id, 2, 30L, 20L, null);
+        }
+        for (long id = 60; id < 63; id++) {
+            add(id, 2, 31L, 22L, null);
+        }
+        return root;
+    }
+
+    private void assertNoOverlap() {
+        Map<Integer, List<TreeNode>> rows = new HashMap<>();
+        for (TreeNode node : nodes) {
+            rows.computeIfAbsent(node.level, key -> new ArrayList<>()).add(node);
+        }
+        for (List<TreeNode> row : rows.values()) {
+            row.sort((a, b) -> Float.compare(a.x, b.x));
+            for (int k = 1; k < row.size(); k++) {
+                TreeNode left = row.get(k - 1);
+                TreeNode right = row.get(k);
+                assertTrue(left.person.id + " and " + right.person.id + " overlap",
+                        right.x - left.x >= SPACING_X - EPSILON);
+            }
+        }
+    }
+
+    private float[] xs() {
+        float[] xs = new float[nodes.size()];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = nodes.get(i).x;
+        }
+        return xs;
+    }
+
+    private void layout(TreeNode root) {
+        new TidyTreeLayoutEngine().layout(nodes, root, SPACING_X, SPACING_Y);
+    }
+
+    /**
+     * Relayout with the first {@code keptCount} nodes kept at their current x.
+     */
+    private void relayout(TreeNode root, int keptCount) {
+        boolean[] kept = new boolean[nodes.size()];
+        for (int i = 0; i < keptCount; i++) {
+            kept[i] = true;
+        }
+        new TidyTreeLayoutEngine().relayout(nodes, root, kept, SPACING_X, SPACING_Y);
+    }
+
+    private TreeNode add(long id, int level, Long motherId, Long fatherId, Long spouseId) {
+        Person person = new Person();
+        person.id = id;
+        person.firstName = "P" + id;
+        person.lastName = "";
+        person.middleName = "";
+        person.motherId = motherId;
+        person.fatherId = fatherId;
+        person.spouseId = spouseId;
+        TreeNode node = new TreeNode(person, level, "P", "P" + id);
+        nodes.add(node);
+        return node;
+    }
+}
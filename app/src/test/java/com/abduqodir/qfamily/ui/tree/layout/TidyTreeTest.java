@@ -0,0 +1,91 @@
+package com.abduqodir.qfamily.ui.tree.layout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class TidyTreeTest {
+    private static final float GAP = 0.25f;
+    private static final float EPSILON = 1e-4f;
+
+    @Test
+    public void parentIsCentredOverItsChildren() {
+        TidyTree tree = new TidyTree(4, GAP);
+        tree.addNode(-1, 1f);
+        tree.addNode(0, 1f);
+        tree.addNode(0, 1f);
+        tree.addNode(0, 1f);
+        tree.layout();
+        assertEquals(1f, tree.x(2) - tree.x(1), EPSILON);
+        assertEquals(1f, tree.x(3) - tree.x(2), EPSILON);
+        assertEquals(tree.x(2), tree.x(0), EPSILON);
+    }
+
+    @Test
+    public void siblingsAreSpacedByHalfTheirWidths() {
+        TidyTree tree = new TidyTree(3, GAP);
+        tree.addNode(-1, 1f);
+        tree.addNode(0, 1f);
+        tree.addNode(0, 2f);
+        tree.layout();
+        assertEquals(1.5f, tree.x(2) - tree.x(1), EPSILON);
+    }
+
+    @Test
+    public void cousinsKeepTheSubtreeGap() {
+        TidyTree tree = new TidyTree(7, GAP);
+        tree.addNode(-1, 1f);
+        tree.addNode(0, 1f);
+        tree.addNode(0, 1f);
+        tree.addNode(1, 1f);
+        tree.addNode(1, 1f);
+        tree.addNode(2, 1f);
+        tree.addNode(2, 1f);
+        tree.layout();
+        assertEquals(1f + GAP, tree.x(5) - tree.x(4), EPSILON);
+    }
+
+    @Test
+    public void randomTreesNeverOverlapOnAnyDepth() {
+        Random random = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            int size = 1 + random.nextInt(200);
+            TidyTree tree = new TidyTree(4, GAP);
+            int[] depth = new int[size];
+            float[] width = new float[size];
+            for (int node = 0; node < size; node++) {
+                int parent = node == 0 ? -1 : random.nextInt(node);
+                depth[node] = parent == -1 ? 0 : depth[parent] + 1;
+                width[node] = random.nextBoolean() ? 1f : 2f;
+                tree.addNode(parent, width[node]);
+            }
+            tree.layout();
+            assertNoOverlap(tree, depth, width);
+        }
+    }
+
+    private static void assertNoOverlap(TidyTree tree, int[] depth, float[] width) {
+        int maxDepth = Arrays.stream(depth).max().orElse(0);
+        for (int d = 0; d <= maxDepth; d++) {
+            List<Integer> row = new ArrayList<>();
+            for (int node = 0; node < depth.length; node++) {
+                if (depth[node] == d) {
+                    row.add(node);
+                }
+            }
+            row.sort((a, b) -> Float.compare(tree.x(a), tree.x(b)));
+            for (int k = 1; k < row.size(); k++) {
+                int left = row.get(k - 1);
+                int right = row.get(k);
+                float needed = (width[left] + width[right]) / 2f;
+                assertTrue("nodes " + left + " and " + right + " overlap on depth " + d,
+                        tree.x(right) - tree.x(left) >= needed - EPSILON);
+            }
+        }
+    }
+}
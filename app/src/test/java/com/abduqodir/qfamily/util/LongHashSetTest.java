@@ -0,0 +1,46 @@
+package com.abduqodir.qfamily.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LongHashSetTest {
+    @Test
+    public void addReportsOnlyNewKeys() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(7));
+        assertFalse(set.add(7));
+        assertTrue(set.add(-7));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void containsSeesEveryKeyAfterGrowing() {
+        LongHashSet set = new LongHashSet(4);
+        for (long key = -500; key < 500; key++) {
+            set.add(key * 31);
+        }
+        set.add(Long.MIN_VALUE);
+        set.add(Long.MAX_VALUE);
+        assertEquals(1002, set.size());
+        for (long key = -500; key < 500; key++) {
+            assertTrue(set.contains(key * 31));
+            assertFalse(set.contains(key * 31 + 1));
+        }
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertTrue(set.contains(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void clearEmptiesTheSetForReuse() {
+        LongHashSet set = new LongHashSet();
+        set.add(PairKey.of(1, 2));
+        set.add(PairKey.of(2, 3));
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(PairKey.of(1, 2)));
+        assertTrue(set.add(PairKey.of(2, 1)));
+    }
+}
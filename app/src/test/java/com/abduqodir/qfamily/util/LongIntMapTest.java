@@ -0,0 +1,50 @@
+package com.abduqodir.qfamily.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LongIntMapTest {
+    @Test
+    public void missingKeysReturnTheDefault() {
+        LongIntMap map = new LongIntMap();
+        assertEquals(-1, map.get(5, -1));
+        assertFalse(map.containsKey(5));
+    }
+
+    @Test
+    public void putOverwritesWithoutGrowingSize() {
+        LongIntMap map = new LongIntMap();
+        map.put(5, 1);
+        map.put(5, 2);
+        assertEquals(2, map.get(5, -1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void valuesSurviveRehashing() {
+        LongIntMap map = new LongIntMap(2);
+        for (int i = 0; i < 1000; i++) {
+            map.put(PairKey.of(i, i + 1), i);
+        }
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, map.get(PairKey.of(i + 1, i), -1));
+        }
+        assertTrue(map.containsKey(PairKey.of(0, 1)));
+        assertFalse(map.containsKey(PairKey.of(0, 2)));
+    }
+
+    @Test
+    public void clearEmptiesTheMapForReuse() {
+        LongIntMap map = new LongIntMap();
+        map.put(1, 10);
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(1, -1));
+        map.put(1, 11);
+        assertEquals(11, map.get(1, -1));
+    }
+}
@@ -0,0 +1,36 @@
+package com.abduqodir.qfamily.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+public class PairKeyTest {
+    @Test
+    public void keyIgnoresArgumentOrder() {
+        assertEquals(PairKey.of(3, 7), PairKey.of(7, 3));
+        assertNotEquals(PairKey.of(3, 7), PairKey.of(3, 8));
+    }
+
+    @Test
+    public void halvesHoldSmallerIdFirst() {
+        long key = PairKey.of(42, 5);
+        assertEquals(5, PairKey.first(key));
+        assertEquals(42, PairKey.second(key));
+    }
+
+    @Test
+    public void largestIdsSurviveRoundTrip() {
+        long max = 0xFFFFFFFFL;
+        long key = PairKey.of(max, max - 1);
+        assertEquals(max - 1, PairKey.first(key));
+        assertEquals(max, PairKey.second(key));
+    }
+
+    @Test
+    public void idsOutsideUnsignedIntRangeAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> PairKey.of(-1, 2));
+        assertThrows(IllegalArgumentException.class, () -> PairKey.of(1, 0x100000000L));
+    }
+}